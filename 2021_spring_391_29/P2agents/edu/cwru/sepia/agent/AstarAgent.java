@@ -2,12 +2,23 @@ package edu.cwru.sepia.agent;
 
 import edu.cwru.sepia.action.Action;
 import edu.cwru.sepia.agent.AstarAgent.MapLocation;
+import edu.cwru.sepia.agent.astar.BidirectionalAStarSearch;
+import edu.cwru.sepia.agent.astar.CooperativePlanner;
+import edu.cwru.sepia.agent.astar.DStarLiteSearch;
+import edu.cwru.sepia.agent.astar.GridAStarSearch;
+import edu.cwru.sepia.agent.astar.GridPathSearch;
+import edu.cwru.sepia.agent.astar.HierarchicalSearch;
+import edu.cwru.sepia.agent.astar.JumpPointSearch;
+import edu.cwru.sepia.agent.astar.ObstacleGrid;
+import edu.cwru.sepia.agent.astar.PathCache;
+import edu.cwru.sepia.agent.astar.PathIndex;
 import edu.cwru.sepia.environment.model.history.History;
 import edu.cwru.sepia.environment.model.state.ResourceNode;
 import edu.cwru.sepia.environment.model.state.State;
 import edu.cwru.sepia.environment.model.state.Unit;
 import edu.cwru.sepia.util.Direction;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.*;
@@ -64,32 +75,118 @@ public class AstarAgent extends Agent {
         public int hashCode() {
             return (int) (0.5 * (this.x + this.y) * (this.x + this.y + 1) + this.y);
         }
-
-        /**
-         * used in A* search algorithm
-         * Uses Chebyshev distance to optimistically estimate true path cost
-         * @param goalX
-         * @param goalY
-         * @return
-         */
-		private int heuristic(int goalX, int goalY) {
-			return Math.max(Math.abs(this.x - goalX), Math.abs(this.y - goalY));
-		}
     }
 
     Stack<MapLocation> path;
-    // hashmap storing path - allows for constant time search for any map location
-    HashMap<Integer, MapLocation> pathHashMap = new HashMap<>();
+    // cells the rest of the path goes through - allows for constant time search for any map location
+    private PathIndex pathIndex;
+    // turns the enemy footman must stand still on the path before the footman detours a second time
+    private static final int BLOCKER_PATIENCE = 2;
+    // replan only when the enemy blocks the path at most this many steps ahead
+    private int replanLookahead = Integer.MAX_VALUE;
+    // replan once more when the enemy footman leaves the cell the current path detours around
+    private boolean replanWhenClear = false;
+    // cell the enemy footman blocked when the current path was planned around it, -1 if none
+    private int detourCell = -1;
+    // whether the footman already replanned around the enemy footman this episode
+    private boolean detoured = false;
+    // cell the enemy footman stood on last turn, -1 if unknown
+    private int lastEnemyCell = -1;
+    // turns in a row the enemy footman has stayed on lastEnemyCell
+    private int enemyStillTurns = 0;
     int footmanID, townhallID, enemyFootmanID;
     MapLocation nextLoc;
+    // search strategy chosen by the "search" argument, see createPathSearch
+    private String searchStrategy = "astar";
+    // side length of the clusters used by the hpa search
+    private int clusterSize = 10;
+    // grid search core, sized for the current map and reused across replans
+    private GridPathSearch pathSearch;
+    // cells occupied by resources, built once in initialStep
+    private ObstacleGrid obstacles;
+    // resource id -> cell, used to clear cells of resource nodes that disappear
+    private Map<Integer, Integer> resourceCells = new HashMap<>();
+    // paths planned in earlier replans and episodes, see the cacheSize argument
+    private PathCache pathCache;
+    // plan every footman together with a space-time reservation table, see the cooperative argument
+    private boolean cooperative = false;
+    private int cooperativeWindow = 16;
+    private CooperativePlanner cooperativePlanner;
+    // footmen covered by the current cooperative plan and the cell each should be in after each turn
+    private List<Integer> plannedIDs = new ArrayList<>();
+    private int[][] unitPlans;
+    private int[] planStarts;
+    // turns taken since the current cooperative plan was made
+    private int planStep;
 
     private long totalPlanTime = 0; // nsecs
     private long totalExecutionTime = 0; //nsecs
 
     public AstarAgent(int playernum)
+    {
+        this(playernum, new String[0]);
+    }
+
+    /**
+     * Arguments are optional name=value pairs from the config file, for example
+     * <Argument>search=dstar</Argument>
+     *
+     * search: astar (default), dstar for the incremental planner on dynamic maps, jps for
+     * jump point search on open maps, hpa for hierarchical search on large maps or
+     * bidirectional for A* from both ends on long narrow mazes
+     * clusterSize: side length of an hpa cluster, 10 by default
+     * cacheSize: number of planned paths remembered across replans and episodes, 64 by default,
+     * 0 turns the cache off
+     * lookahead: replan only when the enemy footman is on the path at most this many steps
+     * ahead, unlimited by default
+     * replanWhenClear: true to replan again when the enemy footman leaves the cell the path
+     * detours around, false by default
+     * cooperative: true to move every footman, planned together so they never collide with
+     * each other
+     * window: how many turns ahead the cooperative planner looks, 16 by default
+     *
+     * @param playernum
+     * @param args
+     */
+    public AstarAgent(int playernum, String[] args)
     {
         super(playernum);
 
+        int cacheSize = 64;
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            if (option.length != 2) {
+                System.err.println("Ignoring argument " + arg + ", expected name=value");
+                continue;
+            }
+            switch (option[0]) {
+                case "search":
+                    searchStrategy = option[1].toLowerCase();
+                    break;
+                case "clusterSize":
+                    clusterSize = Integer.parseInt(option[1]);
+                    break;
+                case "cacheSize":
+                    cacheSize = Integer.parseInt(option[1]);
+                    break;
+                case "lookahead":
+                    replanLookahead = Integer.parseInt(option[1]);
+                    break;
+                case "replanWhenClear":
+                    replanWhenClear = Boolean.parseBoolean(option[1]);
+                    break;
+                case "cooperative":
+                    cooperative = Boolean.parseBoolean(option[1]);
+                    break;
+                case "window":
+                    cooperativeWindow = Integer.parseInt(option[1]);
+                    break;
+                default:
+                    System.err.println("Ignoring unknown argument " + arg);
+            }
+        }
+        pathCache = new PathCache(cacheSize);
+
         System.out.println("Constructed AstarAgent");
     }
 
@@ -164,8 +261,25 @@ public class AstarAgent extends Agent {
             return null;
         }
 
+        // the agent is reused between episodes, forget where the last one left off
+        nextLoc = null;
+        detourCell = -1;
+        detoured = false;
+        lastEnemyCell = -1;
+        enemyStillTurns = 0;
+        pathIndex = new PathIndex(newstate.getXExtent(), newstate.getYExtent());
+
         long startTime = System.nanoTime();
+        buildObstacleGrid(newstate);
+        if (cooperative) {
+            cooperativePlanner = new CooperativePlanner(newstate.getXExtent(), newstate.getYExtent(), cooperativeWindow);
+            planCooperative(newstate);
+            totalPlanTime += System.nanoTime() - startTime;
+            return cooperativeStep(newstate, statehistory);
+        }
+        pathSearch = createPathSearch(newstate.getXExtent(), newstate.getYExtent());
         path = findPath(newstate);
+        indexPath(newstate.getXExtent());
         totalPlanTime += System.nanoTime() - startTime;
 
         return middleStep(newstate, statehistory);
@@ -173,6 +287,8 @@ public class AstarAgent extends Agent {
 
     @Override
     public Map<Integer, Action> middleStep(State.StateView newstate, History.HistoryView statehistory) {
+        if (cooperative) return cooperativeStep(newstate, statehistory);
+
         long startTime = System.nanoTime();
         long planTime = 0;
 
@@ -181,6 +297,9 @@ public class AstarAgent extends Agent {
         if(shouldReplanPath(newstate, statehistory, path)) {
             long planStartTime = System.nanoTime();
             path = findPath(newstate);
+            indexPath(newstate.getXExtent());
+            // the new path starts next to where the footman stands now
+            nextLoc = null;
             planTime = System.nanoTime() - planStartTime;
             totalPlanTime += planTime;
         }
@@ -194,6 +313,7 @@ public class AstarAgent extends Agent {
 
             // stat moving to the next step in the path
             nextLoc = path.pop();
+            pathIndex.advance();
 
             System.out.println("Moving to (" + nextLoc.x + ", " + nextLoc.y + ")");
         }
@@ -238,18 +358,33 @@ public class AstarAgent extends Agent {
     public void terminalStep(State.StateView newstate, History.HistoryView statehistory) {
         System.out.println("Total turns: " + newstate.getTurnNumber());
         System.out.println("Total planning time: " + totalPlanTime/1e9);
+        if (cooperative) {
+            System.out.println("Total nodes expanded: " + cooperativePlanner.getNodesExpanded());
+        } else if (pathSearch != null) {
+            System.out.println("Total nodes expanded: " + pathSearch.getNodesExpanded());
+        }
+        System.out.println("Path cache hits: " + pathCache.getHits() + " (suffix " + pathCache.getSuffixHits()
+                + "), misses: " + pathCache.getMisses());
         System.out.println("Total execution time: " + totalExecutionTime/1e9);
         System.out.println("Total time: " + (totalExecutionTime + totalPlanTime)/1e9);
     }
 
     @Override
     public void savePlayerData(OutputStream os) {
-
+        try {
+            pathCache.save(os);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     @Override
     public void loadPlayerData(InputStream is) {
-
+        try {
+            pathCache.load(is);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     /**
@@ -273,32 +408,229 @@ public class AstarAgent extends Agent {
     {
         // check if enemy exists
         if (enemyFootmanID == -1) return false;
-        // store enemy location
-        MapLocation enemyLocation = new MapLocation(state.getUnit(enemyFootmanID).getXPosition(), state.getUnit(enemyFootmanID).getYPosition(), null, 0);
+        Unit.UnitView enemyUnit = state.getUnit(enemyFootmanID);
+        if (enemyUnit == null) return false;
+
+        int enemyCell = enemyUnit.getYPosition() * state.getXExtent() + enemyUnit.getXPosition();
+        // cells the footman already walked past don't count
+        int stepsAhead = pathIndex.stepsAhead(enemyUnit.getXPosition(), enemyUnit.getYPosition());
+        enemyStillTurns = enemyCell == lastEnemyCell ? enemyStillTurns + 1 : 0;
+        lastEnemyCell = enemyCell;
+        // After the first detour a blocker on the new path has followed the footman there, and
+        // going around it again sends the footman back the way it came while the blocker keeps
+        // moving and usually steps aside. Replan for it only once it has stood still a while.
+        if (stepsAhead >= 0 && stepsAhead <= replanLookahead && (!detoured || enemyStillTurns >= BLOCKER_PATIENCE)) {
+            detoured = true;
+            if (replanWhenClear) detourCell = enemyCell;
+            return true;
+        }
+        // the enemy left the cell we planned around, the shorter way may be open again
+        if (detourCell >= 0 && detourCell != enemyCell) {
+            detourCell = -1;
+            return true;
+        }
+        return false;
+    }
 
-        // create a new hashmap of path if agent replans path
-        if (pathHashMap.isEmpty()){
-            // iterator for iterating over the stack of currentPath
-            Iterator<MapLocation> currentPathIterator = currentPath.iterator();
-            MapLocation next;
+    /**
+     * Moves every footman one turn along the cooperative plan. A footman that has no move this
+     * turn attacks the townhall if it stands next to it.
+     *
+     * @param state
+     * @param history
+     * @return
+     */
+    private Map<Integer, Action> cooperativeStep(State.StateView state, History.HistoryView history)
+    {
+        long startTime = System.nanoTime();
+        long planTime = 0;
 
-            // build hashmap from stack and stop if enemy is present
-             while(currentPathIterator.hasNext())
-            {
-                next = currentPathIterator.next();
-                if(next.equals(enemyLocation))
-                {
-                    //Enemy found so new Path will be determined
-                    pathHashMap = new HashMap<Integer,MapLocation>();
-                    return true;
+        Map<Integer, Action> actions = new HashMap<>();
+        Unit.UnitView townhallUnit = state.getUnit(townhallID);
+
+        // if townhall was destroyed on the last turn
+        if(townhallUnit == null) {
+            terminalStep(state, history);
+            return actions;
+        }
+
+        if (shouldReplanCooperative(state)) {
+            long planStartTime = System.nanoTime();
+            planCooperative(state);
+            planTime = System.nanoTime() - planStartTime;
+            totalPlanTime += planTime;
+        }
+
+        for (int i = 0; i < plannedIDs.size(); i++) {
+            int unitID = plannedIDs.get(i);
+            Unit.UnitView unit = state.getUnit(unitID);
+            if (unit == null) continue;
+            int unitX = unit.getXPosition();
+            int unitY = unit.getYPosition();
+            if (planStep < unitPlans[i].length) {
+                int nextX = unitPlans[i][planStep] % state.getXExtent();
+                int nextY = unitPlans[i][planStep] / state.getXExtent();
+                if (nextX != unitX || nextY != unitY) {
+                    actions.put(unitID, Action.createPrimitiveMove(unitID, getNextDirection(nextX - unitX, nextY - unitY)));
+                    continue;
                 }
-                pathHashMap.put(next.hashCode(), next);
             }
+            // out of moves or waiting this turn, which next to the townhall means attacking it
+            if (Math.abs(unitX - townhallUnit.getXPosition()) <= 1 &&
+                    Math.abs(unitY - townhallUnit.getYPosition()) <= 1) {
+                actions.put(unitID, Action.createPrimitiveAttack(unitID, townhallID));
+            }
+        }
+        planStep++;
+
+        totalExecutionTime += System.nanoTime() - startTime - planTime;
+        return actions;
+    }
 
+    /**
+     * Plans every living footman of this player from where it stands now.
+     *
+     * @param state
+     */
+    private void planCooperative(State.StateView state)
+    {
+        updateObstacleGrid(state);
+        plannedIDs.clear();
+        for (Integer unitID : state.getUnitIds(playernum)) {
+            if (state.getUnit(unitID).getTemplateView().getName().equals("Footman")) plannedIDs.add(unitID);
+        }
+        planStarts = new int[plannedIDs.size()];
+        for (int i = 0; i < planStarts.length; i++) {
+            Unit.UnitView unit = state.getUnit(plannedIDs.get(i));
+            planStarts[i] = unit.getYPosition() * state.getXExtent() + unit.getXPosition();
         }
+        int enemyCell = -1;
+        if (enemyFootmanID != -1 && state.getUnit(enemyFootmanID) != null) {
+            Unit.UnitView enemyUnit = state.getUnit(enemyFootmanID);
+            enemyCell = enemyUnit.getYPosition() * state.getXExtent() + enemyUnit.getXPosition();
+        }
+        Unit.UnitView townhallUnit = state.getUnit(townhallID);
+        unitPlans = cooperativePlanner.plan(planStarts, townhallUnit.getXPosition(), townhallUnit.getYPosition(), obstacles, enemyCell);
+        planStep = 0;
+    }
 
-        // if enemy location is in current path
-        return pathHashMap.containsKey(enemyLocation.hashCode());
+    /**
+     * The cooperative plan is made again when a footman is not where the plan put it (a move
+     * failed or a unit died), when the enemy footman stands on a cell a plan still has to
+     * walk through, when a footman ran out of plan away from the townhall, and every half
+     * window so units keep planning beyond the window.
+     *
+     * @param state
+     * @return
+     */
+    private boolean shouldReplanCooperative(State.StateView state)
+    {
+        if (planStep >= Math.max(1, cooperativeWindow / 2)) return true;
+        int enemyCell = -1;
+        if (enemyFootmanID != -1 && state.getUnit(enemyFootmanID) != null) {
+            Unit.UnitView enemyUnit = state.getUnit(enemyFootmanID);
+            enemyCell = enemyUnit.getYPosition() * state.getXExtent() + enemyUnit.getXPosition();
+        }
+        Unit.UnitView townhallUnit = state.getUnit(townhallID);
+        for (int i = 0; i < plannedIDs.size(); i++) {
+            Unit.UnitView unit = state.getUnit(plannedIDs.get(i));
+            if (unit == null) return true;
+            int[] plan = unitPlans[i];
+            int expected = Math.min(planStep, plan.length) == 0 ? planStarts[i] : plan[Math.min(planStep, plan.length) - 1];
+            if (expected != unit.getYPosition() * state.getXExtent() + unit.getXPosition()) return true;
+            if (planStep >= plan.length && (Math.abs(unit.getXPosition() - townhallUnit.getXPosition()) > 1 ||
+                    Math.abs(unit.getYPosition() - townhallUnit.getYPosition()) > 1)) return true;
+            for (int step = planStep; step < plan.length; step++) {
+                if (plan[step] == enemyCell) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rebuilds the path index from the current path, the top of the stack being the first move.
+     *
+     * @param xExtent
+     */
+    private void indexPath(int xExtent)
+    {
+        int[] cells = new int[path.size()];
+        int i = cells.length;
+        // the stack iterates from the bottom, which is the last move
+        for (MapLocation step : path) {
+            cells[--i] = step.y * xExtent + step.x;
+        }
+        pathIndex.reset(cells);
+    }
+
+    /**
+     * Creates the search strategy named by the "search" argument for a map of the given size.
+     * dstar and hpa keep state between replans, so a new one is made every episode.
+     *
+     * @param xExtent
+     * @param yExtent
+     * @return
+     */
+    private GridPathSearch createPathSearch(int xExtent, int yExtent)
+    {
+        switch (searchStrategy) {
+            case "dstar":
+                return new DStarLiteSearch(xExtent, yExtent);
+            case "jps":
+                return new JumpPointSearch(xExtent, yExtent);
+            case "hpa":
+                return new HierarchicalSearch(xExtent, yExtent, clusterSize);
+            case "bidirectional":
+                return new BidirectionalAStarSearch(xExtent, yExtent);
+            case "astar":
+                return new GridAStarSearch(xExtent, yExtent);
+            default:
+                System.err.println("Unknown search " + searchStrategy + ", using astar");
+                return new GridAStarSearch(xExtent, yExtent);
+        }
+    }
+
+    /**
+     * Records the cell of every resource node and builds the obstacle grid from them.
+     * Only called once per episode, replans reuse the grid.
+     *
+     * @param state
+     */
+    private void buildObstacleGrid(State.StateView state)
+    {
+        resourceCells.clear();
+        List<Integer> resourceIDs = state.getAllResourceIds();
+        int[] cells = new int[resourceIDs.size()];
+        int i = 0;
+        for(Integer resourceID : resourceIDs)
+        {
+            ResourceNode.ResourceView resource = state.getResourceNode(resourceID);
+            cells[i] = resource.getYPosition() * state.getXExtent() + resource.getXPosition();
+            resourceCells.put(resourceID, cells[i]);
+            i++;
+        }
+        obstacles = ObstacleGrid.fromCells(state.getXExtent(), state.getYExtent(), cells);
+    }
+
+    /**
+     * Clears the cells of resource nodes that have been used up since the last plan.
+     * The resource count is compared first so the common case costs nothing.
+     *
+     * @param state
+     */
+    private void updateObstacleGrid(State.StateView state)
+    {
+        if (state.getAllResourceIds().size() == resourceCells.size()) return;
+        Iterator<Map.Entry<Integer, Integer>> resourceIterator = resourceCells.entrySet().iterator();
+        while (resourceIterator.hasNext())
+        {
+            Map.Entry<Integer, Integer> resource = resourceIterator.next();
+            if (state.getResourceNode(resource.getKey()) == null)
+            {
+                obstacles = obstacles.cleared(resource.getValue());
+                resourceIterator.remove();
+            }
+        }
     }
 
     /**
@@ -323,17 +655,9 @@ public class AstarAgent extends Agent {
             footmanLoc = new MapLocation(enemyFootmanUnit.getXPosition(), enemyFootmanUnit.getYPosition(), null, 0);
         }
 
-        // get resource locations
-        List<Integer> resourceIDs = state.getAllResourceIds();
-        Set<MapLocation> resourceLocations = new HashSet<MapLocation>();
-        for(Integer resourceID : resourceIDs)
-        {
-            ResourceNode.ResourceView resource = state.getResourceNode(resourceID);
+        updateObstacleGrid(state);
 
-            resourceLocations.add(new MapLocation(resource.getXPosition(), resource.getYPosition(), null, 0));
-        }
-
-        return AstarSearch(startLoc, goalLoc, state.getXExtent(), state.getYExtent(), footmanLoc, resourceLocations);
+        return AstarSearch(startLoc, goalLoc, state.getXExtent(), state.getYExtent(), footmanLoc, obstacles);
     }
     /**
      * This is the method you will implement for the assignment. Your implementation
@@ -342,7 +666,7 @@ public class AstarAgent extends Agent {
      *
      * Therefore your you need to find some possible adjacent steps which are in range
      * and are not trees or the enemy footman.
-     * Hint: Set<MapLocation> resourceLocations contains the locations of trees
+     * Hint: ObstacleGrid obstacles marks the locations of trees
      *
      * You will return a Stack of positions with the top of the stack being the first space to move to
      * and the bottom of the stack being the last space to move to. If there is no path to the townhall
@@ -365,7 +689,7 @@ public class AstarAgent extends Agent {
      * yExtent would be 3 for this map with valid Y coordinates in the range of [0, 2]
      * y=0 is the top most row and y=2 is the bottom most row
      *
-     * resourceLocations would be {(0,1), (1,1), (2,1), (4,1)}
+     * obstacles would mark {(0,1), (1,1), (2,1), (4,1)}
      *
      * The path would be
      *
@@ -381,87 +705,27 @@ public class AstarAgent extends Agent {
      * @param goal MapLocation of the townhall
      * @param xExtent Width of the map
      * @param yExtent Height of the map
-     * @param resourceLocations Set of positions occupied by resources
+     * @param obstacles Grid of positions occupied by resources
      * @return Stack of positions with top of stack being first move in plan
      */
-    private Stack<MapLocation> AstarSearch(MapLocation start, MapLocation goal, int xExtent, int yExtent, MapLocation enemyFootmanLoc, Set<MapLocation> resourceLocations)
+    private Stack<MapLocation> AstarSearch(MapLocation start, MapLocation goal, int xExtent, int yExtent, MapLocation enemyFootmanLoc, ObstacleGrid obstacles)
     {
-        //HashMap to store the closed list to make search operation constant
-        HashMap<Integer, MapLocation> closedList = new HashMap<Integer, MapLocation>();
-		//Priority Queue to store the closed list to get the min MapLocation in constant time
-        /*
-         * Overriden the non-static non-default method of interface to build anonymous class
-         * Helps in building the min PriorityQueue
-         * @param a
-         * @param b
-         * @return
-         */
-        PriorityQueue<MapLocation> openList;
-        openList = new PriorityQueue<>(
-                (a, b) -> {
-                    if (a.cost + a.heuristic(goal.x, goal.y) > b.cost + b.heuristic(goal.x, goal.y))
-                        return 1;
-                    else if (a.cost + a.heuristic(goal.x, goal.y) == b.cost + b.heuristic(goal.x, goal.y))
-                        return 0;
-                    else
-                        return -1;
-                });
-
-        // Add current MapLocation to openList
-        openList.add(start);
-
- 		//Loop to iterate through open list till it gets empty
- 		while (openList.size() > 0) {
-      //Local variable to store the neighbour with min cost
- 			MapLocation currentMapLocation = openList.poll();
- 			//check for Townhall
- 			if(currentMapLocation.heuristic(goal.x, goal.y) == 0){
- 				//build a stack of current MapLocation and it's parents
- 				Stack<MapLocation> determinedPath = new Stack<MapLocation>();
- 				//Don't want to store the initial MapLocation in the Path
- 				currentMapLocation = currentMapLocation.cameFrom;
- 				//Loop to iterate over the parent and stop when the parent is goal state
- 				while(currentMapLocation.cameFrom != null){
- 					determinedPath.push(currentMapLocation);
- 					currentMapLocation = currentMapLocation.cameFrom;
- 				}
-        //If agent reached Townhall
- 				return determinedPath;
- 			}
- 			// add currentMapLocation to closed list
- 			closedList.put(currentMapLocation.hashCode(), currentMapLocation);
-            // Loop to find currentMapLocation's neighbors
-            for (int i = -1; i <= 1; i++) {
-                for (int j = -1; j <= 1; j++) {
-                  //Skip the currentMapLocation
-                    if (i == 0 && j == 0) continue;
-                    //Local variable to store the neighbor of current MapLocation
-                    MapLocation nextMapLocation = new MapLocation(currentMapLocation.x + i, currentMapLocation.y + j, currentMapLocation, currentMapLocation.cost + 1);
-                    // Check if agent is within the bounds of the Map  and not stepping on the ResourceLocations or enemy
-                    if (nextMapLocation.x < xExtent && nextMapLocation.x >= 0 &&
-                            nextMapLocation.y < yExtent && nextMapLocation.y >= 0 &&
-                            resourceLocations.contains(nextMapLocation) == false &&
-                            !nextMapLocation.equals(enemyFootmanLoc)) {
-                      //If the neighbour hasn't been seen, the sameLocation stores null otherwise it stores the MapLocation from the HashMap
-                        MapLocation sameLocation = closedList.get(nextMapLocation.hashCode());
-                        //check if the neighbor is in the closedList
-                        if (sameLocation != null) {
-                          // If the neighbor has been seen before update the parent and the cost (if it's "cheaper") otherwise add it to the open list
-                            if (sameLocation.cost > nextMapLocation.cost) {
-                                sameLocation.cost = nextMapLocation.cost;
-                                sameLocation.cameFrom = nextMapLocation.cameFrom;
-                            }
-                        }
-                        //otherwise put the neighbor to OpenList
-                        else {
-                            openList.add(nextMapLocation);
-                        }
-                    }
-                }
-            }
-          }
+        int enemyCell = enemyFootmanLoc == null ? -1 : enemyFootmanLoc.y * xExtent + enemyFootmanLoc.x;
+        int startCell = start.y * xExtent + start.x;
+        int goalCell = goal.y * xExtent + goal.x;
+        int[] cells = pathCache.get(startCell, goalCell, enemyCell, obstacles);
+        if (cells == null) {
+            cells = pathSearch.search(start.x, start.y, goal.x, goal.y, obstacles, enemyCell);
+            pathCache.put(startCell, goalCell, enemyCell, obstacles, cells);
+        }
         // return an empty path if no path to TownHall
-        return new Stack<MapLocation>();
+        Stack<MapLocation> determinedPath = new Stack<MapLocation>();
+        if (cells == null) return determinedPath;
+        // push the last move first so the top of the stack is the first move
+        for (int i = cells.length - 1; i >= 0; i--) {
+            determinedPath.push(new MapLocation(cells[i] % xExtent, cells[i] / xExtent, null, i + 1));
+        }
+        return determinedPath;
     }
 
     /**
@@ -0,0 +1,188 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.util.Arrays;
+
+/**
+ * Bidirectional A* for the 8-connected, unit cost grid.
+ *
+ * One search runs forward from the footman, the other backward from every open cell next to
+ * the townhall (the cells a path may end on). Each step expands the side with the smaller open
+ * list. mu is the cost of the best path seen where the two searches touch; since both
+ * heuristics are consistent, once the smallest f on either open list is at least mu no cheaper
+ * path can exist and the search stops.
+ */
+public class BidirectionalAStarSearch implements GridPathSearch {
+    private final int xExtent;
+    private final int yExtent;
+    private final Frontier forward;
+    private final Frontier backward;
+    private int stamp = 0;
+    private int nodesExpanded = 0;
+
+    // set for the duration of one search
+    private ObstacleGrid obstacles;
+    private int enemyCell;
+    private int goal;
+
+    /**
+     * the open list, g-scores and parents of one search direction
+     */
+    private class Frontier {
+        final int[] gScore;
+        final int[] parent;
+        final int[] visitedStamp;
+        final long[] closed;
+        final PackedMinHeap open = new PackedMinHeap(256);
+        // cell the heuristic measures towards
+        int targetX;
+        int targetY;
+        // the forward search aims at the cells around the townhall, one step short of it
+        int targetOffset;
+
+        Frontier(int cells) {
+            gScore = new int[cells];
+            parent = new int[cells];
+            visitedStamp = new int[cells];
+            closed = new long[(cells + 63) >>> 6];
+        }
+
+        void reset(int targetX, int targetY, int targetOffset) {
+            this.targetX = targetX;
+            this.targetY = targetY;
+            this.targetOffset = targetOffset;
+            Arrays.fill(closed, 0L);
+            open.clear();
+        }
+
+        boolean reached(int cell) {
+            return visitedStamp[cell] == stamp;
+        }
+
+        int heuristic(int cell) {
+            return Math.max(0, GridAStarSearch.heuristic(cell % xExtent, cell / xExtent, targetX, targetY) - targetOffset);
+        }
+
+        void add(int cell, int cost, int from) {
+            visitedStamp[cell] = stamp;
+            gScore[cell] = cost;
+            parent[cell] = from;
+            open.push(PackedMinHeap.pack(cost + heuristic(cell), cell));
+        }
+
+        /**
+         * drops entries of already expanded cells from the top of the open list
+         * @return smallest f on the open list, or Integer.MAX_VALUE if it is empty
+         */
+        int topF() {
+            while (!open.isEmpty() && GridAStarSearch.isSet(closed, PackedMinHeap.index(open.peek()))) {
+                open.pop();
+            }
+            return open.isEmpty() ? Integer.MAX_VALUE : PackedMinHeap.priority(open.peek());
+        }
+    }
+
+    /**
+     * constructor for BidirectionalAStarSearch
+     * @param xExtent Width of the map
+     * @param yExtent Height of the map
+     */
+    public BidirectionalAStarSearch(int xExtent, int yExtent) {
+        this.xExtent = xExtent;
+        this.yExtent = yExtent;
+        forward = new Frontier(xExtent * yExtent);
+        backward = new Frontier(xExtent * yExtent);
+    }
+
+    @Override
+    public int getNodesExpanded() {
+        return nodesExpanded;
+    }
+
+    private boolean isBlocked(int cell) {
+        return cell == enemyCell || cell == goal || obstacles.isBlocked(cell);
+    }
+
+    @Override
+    public int[] search(int startX, int startY, int goalX, int goalY, ObstacleGrid obstacles, int enemyCell) {
+        this.obstacles = obstacles;
+        this.enemyCell = enemyCell;
+        int start = startY * xExtent + startX;
+        goal = goalY * xExtent + goalX;
+        if (start == goal) return new int[0];
+
+        stamp++;
+        forward.reset(goalX, goalY, 1);
+        backward.reset(startX, startY, 0);
+        forward.add(start, 0, -1);
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                int x = goalX + dx;
+                int y = goalY + dy;
+                if ((dx == 0 && dy == 0) || x < 0 || x >= xExtent || y < 0 || y >= yExtent) continue;
+                int cell = y * xExtent + x;
+                if (!isBlocked(cell)) backward.add(cell, 0, -1);
+            }
+        }
+
+        // best meeting cell and the cost of the path through it
+        int meet = -1;
+        int mu = Integer.MAX_VALUE;
+        if (backward.reached(start)) {
+            meet = start;
+            mu = 0;
+        }
+
+        while (true) {
+            int forwardTop = forward.topF();
+            int backwardTop = backward.topF();
+            if (forwardTop == Integer.MAX_VALUE || backwardTop == Integer.MAX_VALUE) break;
+            if (Math.max(forwardTop, backwardTop) >= mu) break;
+
+            Frontier side = forward.open.size() <= backward.open.size() ? forward : backward;
+            Frontier other = side == forward ? backward : forward;
+            int current = PackedMinHeap.index(side.open.pop());
+            GridAStarSearch.set(side.closed, current);
+            nodesExpanded++;
+
+            int currentX = current % xExtent;
+            int currentY = current / xExtent;
+            int nextCost = side.gScore[current] + 1;
+            for (int dx = -1; dx <= 1; dx++) {
+                int nextX = currentX + dx;
+                if (nextX < 0 || nextX >= xExtent) continue;
+                for (int dy = -1; dy <= 1; dy++) {
+                    if (dx == 0 && dy == 0) continue;
+                    int nextY = currentY + dy;
+                    if (nextY < 0 || nextY >= yExtent) continue;
+                    int next = nextY * xExtent + nextX;
+                    if (isBlocked(next) || GridAStarSearch.isSet(side.closed, next)) continue;
+                    if (side.reached(next) && side.gScore[next] <= nextCost) continue;
+                    side.add(next, nextCost, current);
+                    if (other.reached(next) && nextCost + other.gScore[next] < mu) {
+                        mu = nextCost + other.gScore[next];
+                        meet = next;
+                    }
+                }
+            }
+        }
+        return meet < 0 ? null : buildPath(start, meet);
+    }
+
+    /**
+     * joins the forward half (start to meet) and the backward half (meet to a cell next to
+     * the townhall)
+     * @return cells after the start up to the last cell before the townhall
+     */
+    private int[] buildPath(int start, int meet) {
+        int[] path = new int[forward.gScore[meet] + backward.gScore[meet]];
+        int i = forward.gScore[meet];
+        for (int cell = meet; cell != start; cell = forward.parent[cell]) {
+            path[--i] = cell;
+        }
+        i = forward.gScore[meet];
+        for (int cell = backward.parent[meet]; cell >= 0; cell = backward.parent[cell]) {
+            path[i++] = cell;
+        }
+        return path;
+    }
+}
@@ -0,0 +1,271 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.util.Arrays;
+
+/**
+ * Windowed cooperative A* (WHCA*) for several footmen heading to the same townhall.
+ *
+ * Units are planned one after another in space-time: a state is a cell at a turn, and every
+ * turn a unit either moves to one of its 8 neighbours or waits. Each planned path is written
+ * into a reservation table of (turn, cell) pairs plus the moves between them, and later units
+ * may neither enter a reserved cell at that turn nor swap places with a unit. A unit that
+ * reaches a free cell next to the townhall parks there for the rest of the window. Searches
+ * only look window turns ahead, so the agent replans every half window.
+ *
+ * Before any unit is planned, every unit's start cell is reserved for it at turns 0 and 1, so
+ * units planned early don't walk into a unit that hasn't been planned yet. A unit that can't
+ * reach the townhall, or that no collision free plan exists for, waits where it is: its cell is
+ * then closed to every other unit for the whole window and the units are planned again, until
+ * every plan is collision free. The plans never collide with each other, the enemy footman is
+ * only avoided where it stands when the plan is made.
+ *
+ * The heuristic is the true distance to the nearest cell next to the townhall, found with one
+ * breadth first search over the static obstacles per plan. Moves cost 1 and so do waits, so a
+ * state's g-score is simply its turn.
+ */
+public class CooperativePlanner {
+    private static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private final int xExtent;
+    private final int yExtent;
+    private final int window;
+    private final int[] distanceToGoal;
+    private final int[] bfsQueue;
+    // last turn each cell is reserved by an already planned unit, -1 if never
+    private final int[] lastReserved;
+    // turn from which a parked unit holds the cell, UNREACHABLE if nobody parks there
+    private final int[] parkedFrom;
+    // (turn, cell) -> unit, and (turn, from, to) -> unit for the moves between them
+    private final LongIntHashMap reservations = new LongIntHashMap(1024);
+    private final LongIntHashMap reservedMoves = new LongIntHashMap(1024);
+    // (turn, cell) -> cell the unit was in the turn before
+    private final LongIntHashMap visited = new LongIntHashMap(1024);
+    private final PackedMinHeap open = new PackedMinHeap(256);
+    private int nodesExpanded = 0;
+
+    // set for the duration of one plan
+    private ObstacleGrid obstacles;
+    private int enemyCell;
+    private int goal;
+
+    /**
+     * constructor for CooperativePlanner
+     * @param xExtent Width of the map
+     * @param yExtent Height of the map
+     * @param window how many turns ahead each unit is planned, window * xExtent * yExtent must
+     *               fit in an int
+     * @throws IllegalArgumentException if the map has 1 << 22 cells or more, which the moves in
+     * the reservation table have no room for, or the window is too large for the map
+     */
+    public CooperativePlanner(int xExtent, int yExtent, int window) {
+        if ((long) xExtent * yExtent >= 1 << 22) {
+            throw new IllegalArgumentException("A " + xExtent + "x" + yExtent + " map is too large to plan cooperatively");
+        }
+        if ((long) (window + 1) * xExtent * yExtent > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Window of " + window + " is too large for a " + xExtent + "x" + yExtent + " map");
+        }
+        this.xExtent = xExtent;
+        this.yExtent = yExtent;
+        this.window = window;
+        distanceToGoal = new int[xExtent * yExtent];
+        bfsQueue = new int[xExtent * yExtent];
+        lastReserved = new int[xExtent * yExtent];
+        parkedFrom = new int[xExtent * yExtent];
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    public int getNodesExpanded() {
+        return nodesExpanded;
+    }
+
+    private static long state(int turn, int cell) {
+        return ((long) turn << 32) | cell;
+    }
+
+    private static long move(int turn, int from, int to) {
+        return ((long) turn << 44) | ((long) from << 22) | to;
+    }
+
+    private boolean isBlocked(int cell) {
+        return cell == enemyCell || cell == goal || obstacles.isBlocked(cell);
+    }
+
+    /**
+     * plans all units for the next window turns
+     * @param starts cell of every unit
+     * @param goalX x of the townhall
+     * @param goalY y of the townhall
+     * @param obstacles
+     * @param enemyCell cell of the enemy footman, or -1 if there is none
+     * @return for every unit, in the order of starts, the cell it should be in after each turn.
+     * A plan shorter than window ends on a cell next to the townhall, where the unit stays;
+     * units that cannot reach the townhall get a plan of waits.
+     */
+    public int[][] plan(int[] starts, int goalX, int goalY, ObstacleGrid obstacles, int enemyCell) {
+        this.obstacles = obstacles;
+        this.enemyCell = enemyCell;
+        this.goal = goalY * xExtent + goalX;
+        computeDistances(goalX, goalY);
+
+        // units closest to the townhall go first, so ones already there keep their cell
+        Integer[] order = new Integer[starts.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(distanceToGoal[starts[a]], distanceToGoal[starts[b]]));
+
+        boolean[] waiting = new boolean[starts.length];
+        for (int unit = 0; unit < starts.length; unit++) {
+            waiting[unit] = distanceToGoal[starts[unit]] == UNREACHABLE;
+        }
+        int[][] plans = new int[starts.length][];
+        // every failed search makes one more unit wait, so this ends after at most one plan per unit
+        boolean planned = false;
+        while (!planned) {
+            reservations.clear();
+            reservedMoves.clear();
+            Arrays.fill(lastReserved, -1);
+            Arrays.fill(parkedFrom, UNREACHABLE);
+            for (int unit = 0; unit < starts.length; unit++) {
+                reservations.put(state(0, starts[unit]), unit);
+                reservations.put(state(1, starts[unit]), unit);
+                // nobody may enter the cell of a waiting unit
+                if (waiting[unit]) parkedFrom[starts[unit]] = 0;
+            }
+
+            planned = true;
+            for (int unit : order) {
+                int[] path = waiting[unit] ? null : search(unit, starts[unit]);
+                if (path == null && !waiting[unit]) {
+                    waiting[unit] = true;
+                    planned = false;
+                    break;
+                }
+                if (path == null) {
+                    path = new int[window];
+                    Arrays.fill(path, starts[unit]);
+                } else {
+                    reserve(unit, starts[unit], path);
+                }
+                plans[unit] = path;
+            }
+        }
+        return plans;
+    }
+
+    /**
+     * breadth first search outward from the open cells next to the townhall
+     */
+    private void computeDistances(int goalX, int goalY) {
+        Arrays.fill(distanceToGoal, UNREACHABLE);
+        int head = 0;
+        int tail = 0;
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                int x = goalX + dx;
+                int y = goalY + dy;
+                if ((dx == 0 && dy == 0) || x < 0 || x >= xExtent || y < 0 || y >= yExtent) continue;
+                int cell = y * xExtent + x;
+                if (isBlocked(cell)) continue;
+                distanceToGoal[cell] = 0;
+                bfsQueue[tail++] = cell;
+            }
+        }
+        while (head < tail) {
+            int current = bfsQueue[head++];
+            int currentX = current % xExtent;
+            int currentY = current / xExtent;
+            for (int dx = -1; dx <= 1; dx++) {
+                int nextX = currentX + dx;
+                if (nextX < 0 || nextX >= xExtent) continue;
+                for (int dy = -1; dy <= 1; dy++) {
+                    int nextY = currentY + dy;
+                    if (nextY < 0 || nextY >= yExtent) continue;
+                    int next = nextY * xExtent + nextX;
+                    if (distanceToGoal[next] != UNREACHABLE || isBlocked(next)) continue;
+                    distanceToGoal[next] = distanceToGoal[current] + 1;
+                    bfsQueue[tail++] = next;
+                }
+            }
+        }
+    }
+
+    /**
+     * space-time A* for one unit against the reservations of the other units
+     * @return the unit's cell after each turn, or null if it cannot move without a collision
+     */
+    private int[] search(int unit, int start) {
+        int cells = xExtent * yExtent;
+        visited.clear();
+        open.clear();
+        visited.put(state(0, start), -1);
+        open.push(PackedMinHeap.pack(distanceToGoal[start], start));
+
+        while (!open.isEmpty()) {
+            int index = PackedMinHeap.index(open.pop());
+            int turn = index / cells;
+            int current = index % cells;
+            nodesExpanded++;
+            if (turn == window || (distanceToGoal[current] == 0 && lastReserved[current] < turn && parkedFrom[current] == UNREACHABLE)) {
+                return buildPath(turn, current);
+            }
+
+            int currentX = current % xExtent;
+            int currentY = current / xExtent;
+            int nextTurn = turn + 1;
+            // dx = dy = 0 is waiting in place
+            for (int dx = -1; dx <= 1; dx++) {
+                int nextX = currentX + dx;
+                if (nextX < 0 || nextX >= xExtent) continue;
+                for (int dy = -1; dy <= 1; dy++) {
+                    int nextY = currentY + dy;
+                    if (nextY < 0 || nextY >= yExtent) continue;
+                    int next = nextY * xExtent + nextX;
+                    if (distanceToGoal[next] == UNREACHABLE || parkedFrom[next] <= nextTurn) continue;
+                    int reservedBy = reservations.get(state(nextTurn, next), unit);
+                    if (reservedBy != unit) continue;
+                    // two units may not swap cells in the same turn
+                    if (next != current && reservedMoves.containsKey(move(turn, next, current))) continue;
+                    long key = state(nextTurn, next);
+                    if (visited.containsKey(key)) continue;
+                    // every way to a state takes the same number of turns, so the first one found is kept
+                    visited.put(key, current);
+                    open.push(PackedMinHeap.pack(nextTurn + distanceToGoal[next], nextTurn * cells + next));
+                }
+            }
+        }
+        return null;
+    }
+
+    private int[] buildPath(int turn, int cell) {
+        int[] path = new int[turn];
+        for (int t = turn; t > 0; t--) {
+            path[t - 1] = cell;
+            cell = visited.get(state(t, cell), -1);
+        }
+        return path;
+    }
+
+    private void reserve(int unit, int start, int[] path) {
+        int previous = start;
+        reservations.put(state(0, start), unit);
+        lastReserved[start] = Math.max(lastReserved[start], 0);
+        for (int i = 0; i < path.length; i++) {
+            int cell = path[i];
+            reservations.put(state(i + 1, cell), unit);
+            reservedMoves.put(move(i, previous, cell), unit);
+            lastReserved[cell] = Math.max(lastReserved[cell], i + 1);
+            previous = cell;
+        }
+        if (path.length < window) {
+            // parked next to the townhall for the rest of the window
+            parkedFrom[previous] = path.length;
+            for (int turn = path.length + 1; turn <= window; turn++) {
+                reservations.put(state(turn, previous), unit);
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.util.Arrays;
+
+/**
+ * Incremental planner (D* Lite, Koenig and Likhachev) for the dynamic blocker map.
+ *
+ * The search runs backwards from the goal and keeps its g and rhs values between calls. When
+ * the footman has moved, the enemy footman has moved or a resource has disappeared, only the
+ * cells around the changed ones are made inconsistent again and repaired, so the cost of a
+ * replan is proportional to the change rather than to the map. A new goal starts over.
+ */
+public class DStarLiteSearch implements GridPathSearch {
+    // large enough to never be a real path cost, small enough that adding to it can't overflow
+    private static final int INF = Integer.MAX_VALUE / 4;
+
+    private final int xExtent;
+    private final int yExtent;
+    private final int[] g;
+    private final int[] rhs;
+    private final IndexedMinHeap open;
+
+    private ObstacleGrid obstacles;
+    private int enemyCell = -1;
+    private int start = -1;
+    private int goal = -1;
+    // key modifier, grows by how far the start has moved since the search began
+    private int km = 0;
+    private int nodesExpanded = 0;
+
+    /**
+     * constructor for DStarLiteSearch
+     * @param xExtent Width of the map
+     * @param yExtent Height of the map
+     */
+    public DStarLiteSearch(int xExtent, int yExtent) {
+        this.xExtent = xExtent;
+        this.yExtent = yExtent;
+        g = new int[xExtent * yExtent];
+        rhs = new int[xExtent * yExtent];
+        open = new IndexedMinHeap(xExtent * yExtent);
+    }
+
+    @Override
+    public int getNodesExpanded() {
+        return nodesExpanded;
+    }
+
+    @Override
+    public int[] search(int startX, int startY, int goalX, int goalY, ObstacleGrid obstacles, int enemyCell) {
+        int newStart = startY * xExtent + startX;
+        int newGoal = goalY * xExtent + goalX;
+
+        if (newGoal != goal) {
+            initialize(newStart, newGoal, obstacles, enemyCell);
+        } else {
+            // the start has to move before any edge is repaired so the new keys use it
+            km += heuristic(start, newStart);
+            start = newStart;
+            if (obstacles != this.obstacles) {
+                ObstacleGrid oldObstacles = this.obstacles;
+                this.obstacles = obstacles;
+                for (int cell = 0; cell < g.length; cell++) {
+                    if (oldObstacles.isBlocked(cell) != obstacles.isBlocked(cell)) cellChanged(cell);
+                }
+            }
+            if (enemyCell != this.enemyCell) {
+                int oldEnemyCell = this.enemyCell;
+                this.enemyCell = enemyCell;
+                if (oldEnemyCell >= 0) cellChanged(oldEnemyCell);
+                if (enemyCell >= 0) cellChanged(enemyCell);
+            }
+        }
+
+        computeShortestPath();
+        return buildPath();
+    }
+
+    /**
+     * throws away the previous search and seeds a new one from the goal
+     */
+    private void initialize(int start, int goal, ObstacleGrid obstacles, int enemyCell) {
+        this.start = start;
+        this.goal = goal;
+        this.obstacles = obstacles;
+        this.enemyCell = enemyCell;
+        km = 0;
+        Arrays.fill(g, INF);
+        Arrays.fill(rhs, INF);
+        open.clear();
+        rhs[goal] = 0;
+        open.insertOrUpdate(goal, calculateKey(goal));
+    }
+
+    private int heuristic(int a, int b) {
+        return GridAStarSearch.heuristic(a % xExtent, a / xExtent, b % xExtent, b / xExtent);
+    }
+
+    private boolean isBlocked(int cell) {
+        return cell == enemyCell || obstacles.isBlocked(cell);
+    }
+
+    /**
+     * primary key in the high half, secondary key in the low half so one long compare orders both
+     */
+    private long calculateKey(int cell) {
+        int best = Math.min(g[cell], rhs[cell]);
+        return ((long) (best + heuristic(start, cell) + km) << 32) | best;
+    }
+
+    /**
+     * one step lookahead: cost of the cheapest move out of the cell plus the cost from there
+     */
+    private int bestSuccessorCost(int cell) {
+        if (isBlocked(cell)) return INF;
+        int x = cell % xExtent;
+        int y = cell / xExtent;
+        int best = INF;
+        for (int dx = -1; dx <= 1; dx++) {
+            int nextX = x + dx;
+            if (nextX < 0 || nextX >= xExtent) continue;
+            for (int dy = -1; dy <= 1; dy++) {
+                if (dx == 0 && dy == 0) continue;
+                int nextY = y + dy;
+                if (nextY < 0 || nextY >= yExtent) continue;
+                int next = nextY * xExtent + nextX;
+                if (!isBlocked(next) && g[next] + 1 < best) best = g[next] + 1;
+            }
+        }
+        return best;
+    }
+
+    private void updateVertex(int cell) {
+        if (g[cell] != rhs[cell]) {
+            open.insertOrUpdate(cell, calculateKey(cell));
+        } else {
+            open.remove(cell);
+        }
+    }
+
+    /**
+     * a cell became blocked or free: every edge touching it changed cost, so the rhs of the cell
+     * and of all its neighbours has to be recomputed
+     */
+    private void cellChanged(int cell) {
+        int x = cell % xExtent;
+        int y = cell / xExtent;
+        for (int dx = -1; dx <= 1; dx++) {
+            int nextX = x + dx;
+            if (nextX < 0 || nextX >= xExtent) continue;
+            for (int dy = -1; dy <= 1; dy++) {
+                int nextY = y + dy;
+                if (nextY < 0 || nextY >= yExtent) continue;
+                int next = nextY * xExtent + nextX;
+                if (next != goal) rhs[next] = bestSuccessorCost(next);
+                updateVertex(next);
+            }
+        }
+    }
+
+    /**
+     * updates the rhs of every unblocked neighbour of a cell whose g just changed
+     */
+    private void updatePredecessors(int cell, int oldG) {
+        int x = cell % xExtent;
+        int y = cell / xExtent;
+        boolean cellBlocked = isBlocked(cell);
+        for (int dx = -1; dx <= 1; dx++) {
+            int nextX = x + dx;
+            if (nextX < 0 || nextX >= xExtent) continue;
+            for (int dy = -1; dy <= 1; dy++) {
+                if (dx == 0 && dy == 0) continue;
+                int nextY = y + dy;
+                if (nextY < 0 || nextY >= yExtent) continue;
+                int next = nextY * xExtent + nextX;
+                if (next == goal || isBlocked(next) || cellBlocked) continue;
+                if (g[cell] + 1 < rhs[next]) {
+                    // the cell got cheaper
+                    rhs[next] = g[cell] + 1;
+                } else if (rhs[next] == oldG + 1) {
+                    // the neighbour's best route went through the cell, which got more expensive
+                    rhs[next] = bestSuccessorCost(next);
+                }
+                updateVertex(next);
+            }
+        }
+    }
+
+    private void computeShortestPath() {
+        // ties with the start's key are processed too, so no stale g can tie with a real one
+        // when buildPath walks down the g values
+        while (open.topKey() <= calculateKey(start) || rhs[start] > g[start]) {
+            int cell = open.top();
+            long oldKey = open.topKey();
+            long newKey = calculateKey(cell);
+            if (oldKey < newKey) {
+                // the key is stale because the start moved, put it back where it belongs
+                open.insertOrUpdate(cell, newKey);
+                continue;
+            }
+            nodesExpanded++;
+            if (g[cell] > rhs[cell]) {
+                int oldG = g[cell];
+                g[cell] = rhs[cell];
+                open.remove(cell);
+                updatePredecessors(cell, oldG);
+            } else {
+                int oldG = g[cell];
+                g[cell] = INF;
+                if (cell != goal) rhs[cell] = bestSuccessorCost(cell);
+                updateVertex(cell);
+                updatePredecessors(cell, oldG);
+            }
+        }
+    }
+
+    /**
+     * follows the cheapest successor from the start to the goal
+     * @return cells strictly between start and goal, first move first, or null if there is no path
+     */
+    private int[] buildPath() {
+        if (g[start] >= INF) return null;
+        int[] path = new int[g[start]];
+        int length = 0;
+        int cell = start;
+        while (length < path.length) {
+            int x = cell % xExtent;
+            int y = cell / xExtent;
+            int best = -1;
+            for (int dx = -1; dx <= 1; dx++) {
+                int nextX = x + dx;
+                if (nextX < 0 || nextX >= xExtent) continue;
+                for (int dy = -1; dy <= 1; dy++) {
+                    if (dx == 0 && dy == 0) continue;
+                    int nextY = y + dy;
+                    if (nextY < 0 || nextY >= yExtent) continue;
+                    int next = nextY * xExtent + nextX;
+                    if (isBlocked(next)) continue;
+                    if (best < 0 || g[next] < g[best]) best = next;
+                }
+            }
+            cell = best;
+            path[length++] = cell;
+        }
+        // the last cell is the goal itself
+        return Arrays.copyOf(path, Math.max(0, length - 1));
+    }
+}
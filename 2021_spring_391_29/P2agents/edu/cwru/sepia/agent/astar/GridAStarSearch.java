@@ -0,0 +1,133 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.util.Arrays;
+
+/**
+ * A* over an 8-connected grid with uniform step cost 1.
+ *
+ * Cells are flat indices (y * xExtent + x). g-scores and parent pointers live in int arrays,
+ * the closed list is a bitset and the open list is a PackedMinHeap of (f, cell) keys, so a search
+ * allocates nothing per expanded node. The arrays are sized once for the map and reused by every
+ * search; visitedStamp tells which gScore entries belong to the current search so they never
+ * have to be cleared.
+ */
+public class GridAStarSearch implements GridPathSearch {
+    private final int xExtent;
+    private final int yExtent;
+    // best known path cost to each cell, valid only where visitedStamp == stamp
+    private final int[] gScore;
+    // cell we reached each cell from, valid only where visitedStamp == stamp
+    private final int[] parent;
+    private final int[] visitedStamp;
+    private final long[] closed;
+    private final PackedMinHeap open;
+    private int stamp = 0;
+    private int nodesExpanded = 0;
+
+    /**
+     * constructor for GridAStarSearch
+     * @param xExtent Width of the map
+     * @param yExtent Height of the map
+     */
+    public GridAStarSearch(int xExtent, int yExtent) {
+        this.xExtent = xExtent;
+        this.yExtent = yExtent;
+        int cells = xExtent * yExtent;
+        gScore = new int[cells];
+        parent = new int[cells];
+        visitedStamp = new int[cells];
+        closed = new long[(cells + 63) >>> 6];
+        open = new PackedMinHeap(Math.min(cells, 1 << 12));
+    }
+
+    @Override
+    public int getNodesExpanded() {
+        return nodesExpanded;
+    }
+
+    /**
+     * Uses Chebyshev distance to optimistically estimate true path cost
+     * @param x
+     * @param y
+     * @param goalX
+     * @param goalY
+     * @return
+     */
+    static int heuristic(int x, int y, int goalX, int goalY) {
+        return Math.max(Math.abs(x - goalX), Math.abs(y - goalY));
+    }
+
+    static boolean isSet(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    @Override
+    public int[] search(int startX, int startY, int goalX, int goalY, ObstacleGrid obstacles, int enemyCell) {
+        int start = startY * xExtent + startX;
+        int goal = goalY * xExtent + goalX;
+
+        stamp++;
+        Arrays.fill(closed, 0L);
+        open.clear();
+
+        visitedStamp[start] = stamp;
+        gScore[start] = 0;
+        parent[start] = -1;
+        open.push(PackedMinHeap.pack(heuristic(startX, startY, goalX, goalY), start));
+
+        while (!open.isEmpty()) {
+            int current = PackedMinHeap.index(open.pop());
+            // a cheaper copy of this cell was already expanded
+            if (isSet(closed, current)) continue;
+            if (current == goal) return buildPath(start, goal);
+            set(closed, current);
+            nodesExpanded++;
+
+            int currentX = current % xExtent;
+            int currentY = current / xExtent;
+            int nextCost = gScore[current] + 1;
+            for (int dx = -1; dx <= 1; dx++) {
+                int nextX = currentX + dx;
+                if (nextX < 0 || nextX >= xExtent) continue;
+                for (int dy = -1; dy <= 1; dy++) {
+                    if (dx == 0 && dy == 0) continue;
+                    int nextY = currentY + dy;
+                    if (nextY < 0 || nextY >= yExtent) continue;
+                    int next = nextY * xExtent + nextX;
+                    if (next == enemyCell || obstacles.isBlocked(next) || isSet(closed, next)) continue;
+                    if (visitedStamp[next] == stamp && gScore[next] <= nextCost) continue;
+                    visitedStamp[next] = stamp;
+                    gScore[next] = nextCost;
+                    parent[next] = current;
+                    open.push(PackedMinHeap.pack(nextCost + heuristic(nextX, nextY, goalX, goalY), next));
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * walks the parent pointers back from the goal
+     * @param start
+     * @param goal
+     * @return cells strictly between start and goal, first move first
+     */
+    private int[] buildPath(int start, int goal) {
+        if (start == goal) return new int[0];
+        int length = 0;
+        for (int cell = parent[goal]; cell != start; cell = parent[cell]) {
+            length++;
+        }
+        int[] path = new int[length];
+        int cell = parent[goal];
+        for (int i = length - 1; i >= 0; i--) {
+            path[i] = cell;
+            cell = parent[cell];
+        }
+        return path;
+    }
+}
@@ -0,0 +1,29 @@
+package edu.cwru.sepia.agent.astar;
+
+/**
+ * A shortest path strategy over the 8-connected, unit cost grid the footman walks on.
+ *
+ * Implementations may keep state between calls (for example to repair the previous search),
+ * so one instance should only be used for one map.
+ */
+public interface GridPathSearch {
+
+    /**
+     * Finds the shortest path from start to goal.
+     *
+     * @param startX
+     * @param startY
+     * @param goalX
+     * @param goalY
+     * @param obstacles cells occupied by resources
+     * @param enemyCell cell of the enemy footman, or -1 if there is none
+     * @return cells to walk through in order, excluding both the start and the goal, or null if
+     * the goal cannot be reached
+     */
+    int[] search(int startX, int startY, int goalX, int goalY, ObstacleGrid obstacles, int enemyCell);
+
+    /**
+     * @return number of cells expanded by every search run on this instance
+     */
+    int getNodesExpanded();
+}
@@ -0,0 +1,538 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hierarchical path finding (HPA*, Botea, Mueller and Schaeffer) for large maps.
+ *
+ * The grid is cut into square clusters. Where two neighbouring clusters share a run of open
+ * border cells an entrance is placed, giving a pair of abstract nodes one step apart. Inside
+ * every cluster the walking distance between each pair of its abstract nodes is computed once
+ * with a breadth first search restricted to the cluster. A query only searches inside the start
+ * and goal clusters to connect them to that abstract graph, runs A* on the abstract graph and
+ * then refines each abstract edge with a search limited to one cluster. A first plan still
+ * costs time in proportion to the length of the path, and building the graph costs time in
+ * proportion to the area of the map.
+ *
+ * The last path is kept along with where its abstract nodes lie on it. A query from a cell on
+ * that path to the same goal reuses the rest of it when the enemy footman isn't on it. When
+ * the enemy is on it, only the stretch between the last abstract node before the enemy and the
+ * first one after the enemy's cluster is searched and refined again. The cost of a replan then
+ * depends on the cluster size rather than the size of the map, apart from copying the path.
+ *
+ * The enemy footman only invalidates the clusters it leaves and enters. Paths are longer than
+ * the shortest ones, by about a tenth on random maps, and repaired paths can be longer still.
+ * If the abstract graph can't connect start and goal (for example the only way through is a
+ * diagonal step across a cluster corner) the query falls back to a plain GridAStarSearch.
+ */
+public class HierarchicalSearch implements GridPathSearch {
+    private static final int INF = Integer.MAX_VALUE / 4;
+
+    private final int xExtent;
+    private final int yExtent;
+    private final int clusterSize;
+    private final int clustersWide;
+    private final int clustersHigh;
+    private final GridAStarSearch fallback;
+
+    // grid the abstract graph was built for, and the enemy cell the cluster distances account for
+    private ObstacleGrid obstacles;
+    private int enemyCell = -1;
+
+    // abstract graph
+    private int nodeCount;
+    private int[] nodeCell;
+    private int[] nodeCluster;
+    private int[] nodeSlot;
+    // abstract nodes across the cluster border, one step away
+    private int[][] nodePartners;
+    // abstract nodes of each cluster, and the k * k distances between them
+    private int[][] clusterNodes;
+    private int[][] clusterDistances;
+
+    // breadth first search buffers, shared by building and querying
+    private final int[] bfsDistance;
+    private final int[] bfsParent;
+    private final int[] bfsStamp;
+    private final int[] bfsQueue;
+    private int stamp = 0;
+
+    // abstract A* buffers, sized for the node count plus the temporary start and goal nodes
+    private int[] abstractG;
+    private int[] abstractParent;
+    private int[] abstractStamp;
+    private boolean[] abstractClosed;
+    private final PackedMinHeap open = new PackedMinHeap(64);
+    private int abstractSearchStamp = 0;
+
+    // the last path planned, from its start to its goal inclusive, null if there is none
+    private int[] route;
+    // indices in route of the abstract nodes on it, in order
+    private int[] routeWaypoints;
+    // index in route of the start of the last query
+    private int routePosition;
+    // indices in the path the last refine returned of the abstract nodes on it
+    private int[] refinedWaypoints = new int[0];
+    private int refinedWaypointCount;
+
+    private int nodesExpanded = 0;
+
+    /**
+     * constructor for HierarchicalSearch
+     * @param xExtent Width of the map
+     * @param yExtent Height of the map
+     * @param clusterSize side length of a cluster in cells
+     */
+    public HierarchicalSearch(int xExtent, int yExtent, int clusterSize) {
+        this.xExtent = xExtent;
+        this.yExtent = yExtent;
+        this.clusterSize = clusterSize;
+        clustersWide = (xExtent + clusterSize - 1) / clusterSize;
+        clustersHigh = (yExtent + clusterSize - 1) / clusterSize;
+        fallback = new GridAStarSearch(xExtent, yExtent);
+        bfsDistance = new int[xExtent * yExtent];
+        bfsParent = new int[xExtent * yExtent];
+        bfsStamp = new int[xExtent * yExtent];
+        bfsQueue = new int[clusterSize * clusterSize];
+    }
+
+    @Override
+    public int getNodesExpanded() {
+        return nodesExpanded + fallback.getNodesExpanded();
+    }
+
+    @Override
+    public int[] search(int startX, int startY, int goalX, int goalY, ObstacleGrid obstacles, int enemyCell) {
+        if (obstacles != this.obstacles) {
+            this.enemyCell = enemyCell;
+            route = null;
+            buildAbstractGraph(obstacles);
+        } else if (enemyCell != this.enemyCell) {
+            int oldEnemyCell = this.enemyCell;
+            this.enemyCell = enemyCell;
+            if (oldEnemyCell >= 0) computeClusterDistances(clusterOf(oldEnemyCell));
+            if (enemyCell >= 0 && (oldEnemyCell < 0 || clusterOf(enemyCell) != clusterOf(oldEnemyCell))) {
+                computeClusterDistances(clusterOf(enemyCell));
+            }
+        }
+
+        int start = startY * xExtent + startX;
+        int goal = goalY * xExtent + goalX;
+        if (start == goal) return new int[0];
+        int[] path = replanAlongRoute(start, goal);
+        if (path != null) return path;
+        path = abstractSearch(start, goal);
+        if (path == null) {
+            route = null;
+            return fallback.search(startX, startY, goalX, goalY, obstacles, enemyCell);
+        }
+        route = new int[path.length + 2];
+        route[0] = start;
+        System.arraycopy(path, 0, route, 1, path.length);
+        route[route.length - 1] = goal;
+        routeWaypoints = new int[refinedWaypointCount];
+        for (int i = 0; i < refinedWaypointCount; i++) {
+            routeWaypoints[i] = refinedWaypoints[i] + 1;
+        }
+        routePosition = 0;
+        return path;
+    }
+
+    /**
+     * Plans from a cell on the last path to its goal by reusing that path, repairing the
+     * stretch around the enemy footman if it stands on the rest of it.
+     *
+     * @return cells strictly between start and goal, or null if the start isn't on the last
+     * path, the goal changed or the repair found no way around the enemy
+     */
+    private int[] replanAlongRoute(int start, int goal) {
+        if (route == null || route[route.length - 1] != goal) return null;
+        int first = indexOnRoute(start);
+        if (first < 0) return null;
+        routePosition = first;
+        int last = route.length - 1;
+        int blocked = -1;
+        for (int i = first + 1; i < last && enemyCell >= 0; i++) {
+            if (route[i] == enemyCell) {
+                blocked = i;
+                break;
+            }
+        }
+        if (blocked < 0) return Arrays.copyOfRange(route, first + 1, last);
+
+        // search again from the last abstract node before the enemy, or the start, to the first
+        // one past the enemy's cluster, or the goal
+        int from = first;
+        int to = last;
+        int enemyCluster = clusterOf(enemyCell);
+        for (int waypoint : routeWaypoints) {
+            if (waypoint >= first && waypoint < blocked) from = waypoint;
+            if (waypoint > blocked && clusterOf(route[waypoint]) != enemyCluster) {
+                to = waypoint;
+                break;
+            }
+        }
+        // the rest of the path can come back to the enemy's cluster and cross the enemy again
+        for (int i = to + 1; i < last; i++) {
+            if (route[i] == enemyCell) return null;
+        }
+        int[] detour = abstractSearch(route[from], route[to]);
+        if (detour == null) return null;
+
+        int[] repaired = new int[from - first + 1 + detour.length + last - to + 1];
+        boolean[] isWaypoint = new boolean[repaired.length];
+        System.arraycopy(route, first, repaired, 0, from - first + 1);
+        System.arraycopy(detour, 0, repaired, from - first + 1, detour.length);
+        int shift = from - first + 1 + detour.length - to;
+        System.arraycopy(route, to, repaired, to + shift, last - to + 1);
+        for (int waypoint : routeWaypoints) {
+            if (waypoint >= first && waypoint <= from) isWaypoint[waypoint - first] = true;
+            if (waypoint >= to && waypoint < last) isWaypoint[waypoint + shift] = true;
+        }
+        for (int i = 0; i < refinedWaypointCount; i++) {
+            isWaypoint[refinedWaypoints[i] + from - first + 1] = true;
+        }
+
+        // the detour can double back over the path, cut out the loops that makes. bfsDistance
+        // holds where a cell was last put, which is stale if a later loop cut it out again.
+        stamp++;
+        int length = 0;
+        int count = 0;
+        for (int i = 0; i < repaired.length; i++) {
+            int cell = repaired[i];
+            boolean waypoint = isWaypoint[i];
+            if (bfsStamp[cell] == stamp && bfsDistance[cell] < length && repaired[bfsDistance[cell]] == cell) {
+                length = bfsDistance[cell];
+                waypoint |= isWaypoint[length];
+            }
+            repaired[length] = cell;
+            isWaypoint[length] = waypoint;
+            bfsStamp[cell] = stamp;
+            bfsDistance[cell] = length++;
+        }
+        route = Arrays.copyOf(repaired, length);
+        routeWaypoints = new int[length];
+        for (int i = 0; i < length - 1; i++) {
+            if (isWaypoint[i]) routeWaypoints[count++] = i;
+        }
+        routeWaypoints = Arrays.copyOf(routeWaypoints, count);
+        routePosition = 0;
+        return Arrays.copyOfRange(route, 1, length - 1);
+    }
+
+    /**
+     * @return the index of the cell in route, looking from where the last query started first
+     * since the footman walks along it, or -1 if it isn't on it
+     */
+    private int indexOnRoute(int cell) {
+        for (int i = routePosition; i < route.length - 1; i++) {
+            if (route[i] == cell) return i;
+        }
+        for (int i = 0; i < routePosition; i++) {
+            if (route[i] == cell) return i;
+        }
+        return -1;
+    }
+
+    private int clusterOf(int cell) {
+        return (cell / xExtent / clusterSize) * clustersWide + (cell % xExtent) / clusterSize;
+    }
+
+    private boolean isBlocked(int cell) {
+        return cell == enemyCell || obstacles.isBlocked(cell);
+    }
+
+    /**
+     * places the entrances on every cluster border and computes all intra cluster distances
+     */
+    private void buildAbstractGraph(ObstacleGrid obstacles) {
+        this.obstacles = obstacles;
+        int[] nodeOfCell = new int[xExtent * yExtent];
+        Arrays.fill(nodeOfCell, -1);
+        List<Integer> cells = new ArrayList<>();
+        List<List<Integer>> partners = new ArrayList<>();
+
+        // vertical borders between horizontally neighbouring clusters
+        for (int borderX = clusterSize - 1; borderX + 1 < xExtent; borderX += clusterSize) {
+            for (int top = 0; top < yExtent; top += clusterSize) {
+                int bottom = Math.min(top + clusterSize, yExtent);
+                addEntrances(borderX, top, 0, 1, 1, 0, bottom - top, nodeOfCell, cells, partners);
+            }
+        }
+        // horizontal borders between vertically neighbouring clusters
+        for (int borderY = clusterSize - 1; borderY + 1 < yExtent; borderY += clusterSize) {
+            for (int left = 0; left < xExtent; left += clusterSize) {
+                int right = Math.min(left + clusterSize, xExtent);
+                addEntrances(left, borderY, 1, 0, 0, 1, right - left, nodeOfCell, cells, partners);
+            }
+        }
+
+        nodeCount = cells.size();
+        nodeCell = new int[nodeCount];
+        nodeCluster = new int[nodeCount];
+        nodeSlot = new int[nodeCount];
+        nodePartners = new int[nodeCount][];
+        int[] clusterCounts = new int[clustersWide * clustersHigh];
+        for (int node = 0; node < nodeCount; node++) {
+            nodeCell[node] = cells.get(node);
+            nodeCluster[node] = clusterOf(nodeCell[node]);
+            nodeSlot[node] = clusterCounts[nodeCluster[node]]++;
+            List<Integer> nodePartnerList = partners.get(node);
+            nodePartners[node] = new int[nodePartnerList.size()];
+            for (int i = 0; i < nodePartners[node].length; i++) {
+                nodePartners[node][i] = nodePartnerList.get(i);
+            }
+        }
+        clusterNodes = new int[clusterCounts.length][];
+        clusterDistances = new int[clusterCounts.length][];
+        for (int cluster = 0; cluster < clusterCounts.length; cluster++) {
+            clusterNodes[cluster] = new int[clusterCounts[cluster]];
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            clusterNodes[nodeCluster[node]][nodeSlot[node]] = node;
+        }
+        for (int cluster = 0; cluster < clusterCounts.length; cluster++) {
+            computeClusterDistances(cluster);
+        }
+
+        // two extra slots for the start and goal of a query
+        abstractG = new int[nodeCount + 2];
+        abstractParent = new int[nodeCount + 2];
+        abstractStamp = new int[nodeCount + 2];
+        abstractClosed = new boolean[nodeCount + 2];
+    }
+
+    /**
+     * Scans one border segment for maximal runs of open cell pairs. A short run gets one
+     * entrance in its middle, a long one gets an entrance at each end.
+     *
+     * (x, y) is the first cell on the near side, (stepX, stepY) walks along the border and
+     * (acrossX, acrossY) steps over it to the far side.
+     */
+    private void addEntrances(int x, int y, int stepX, int stepY, int acrossX, int acrossY, int length,
+                              int[] nodeOfCell, List<Integer> cells, List<List<Integer>> partners) {
+        int runStart = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean open = false;
+            if (i < length) {
+                int near = (y + i * stepY) * xExtent + x + i * stepX;
+                int far = near + acrossY * xExtent + acrossX;
+                open = !obstacles.isBlocked(near) && !obstacles.isBlocked(far);
+            }
+            if (open && runStart < 0) {
+                runStart = i;
+            } else if (!open && runStart >= 0) {
+                int runEnd = i - 1;
+                if (runEnd - runStart + 1 < 6) {
+                    addTransition((runStart + runEnd) / 2, x, y, stepX, stepY, acrossX, acrossY, nodeOfCell, cells, partners);
+                } else {
+                    addTransition(runStart, x, y, stepX, stepY, acrossX, acrossY, nodeOfCell, cells, partners);
+                    addTransition(runEnd, x, y, stepX, stepY, acrossX, acrossY, nodeOfCell, cells, partners);
+                }
+                runStart = -1;
+            }
+        }
+    }
+
+    private void addTransition(int i, int x, int y, int stepX, int stepY, int acrossX, int acrossY,
+                               int[] nodeOfCell, List<Integer> cells, List<List<Integer>> partners) {
+        int near = (y + i * stepY) * xExtent + x + i * stepX;
+        int far = near + acrossY * xExtent + acrossX;
+        int nearNode = nodeFor(near, nodeOfCell, cells, partners);
+        int farNode = nodeFor(far, nodeOfCell, cells, partners);
+        partners.get(nearNode).add(farNode);
+        partners.get(farNode).add(nearNode);
+    }
+
+    private int nodeFor(int cell, int[] nodeOfCell, List<Integer> cells, List<List<Integer>> partners) {
+        if (nodeOfCell[cell] < 0) {
+            nodeOfCell[cell] = cells.size();
+            cells.add(cell);
+            partners.add(new ArrayList<Integer>());
+        }
+        return nodeOfCell[cell];
+    }
+
+    /**
+     * recomputes the distances between all abstract nodes of one cluster
+     */
+    private void computeClusterDistances(int cluster) {
+        int[] nodes = clusterNodes[cluster];
+        int k = nodes.length;
+        int[] distances = new int[k * k];
+        for (int i = 0; i < k; i++) {
+            clusterBfs(nodeCell[nodes[i]], cluster);
+            for (int j = 0; j < k; j++) {
+                distances[i * k + j] = bfsDistanceTo(nodeCell[nodes[j]]);
+            }
+        }
+        clusterDistances[cluster] = distances;
+    }
+
+    /**
+     * breadth first search from a cell that never leaves the given cluster
+     */
+    private void clusterBfs(int from, int cluster) {
+        stamp++;
+        int left = (cluster % clustersWide) * clusterSize;
+        int top = (cluster / clustersWide) * clusterSize;
+        int right = Math.min(left + clusterSize, xExtent);
+        int bottom = Math.min(top + clusterSize, yExtent);
+        if (isBlocked(from)) return;
+
+        int head = 0;
+        int tail = 0;
+        bfsStamp[from] = stamp;
+        bfsDistance[from] = 0;
+        bfsParent[from] = -1;
+        bfsQueue[tail++] = from;
+        while (head < tail) {
+            int current = bfsQueue[head++];
+            nodesExpanded++;
+            int x = current % xExtent;
+            int y = current / xExtent;
+            for (int dx = -1; dx <= 1; dx++) {
+                int nextX = x + dx;
+                if (nextX < left || nextX >= right) continue;
+                for (int dy = -1; dy <= 1; dy++) {
+                    int nextY = y + dy;
+                    if (nextY < top || nextY >= bottom) continue;
+                    int next = nextY * xExtent + nextX;
+                    if (bfsStamp[next] == stamp || isBlocked(next)) continue;
+                    bfsStamp[next] = stamp;
+                    bfsDistance[next] = bfsDistance[current] + 1;
+                    bfsParent[next] = current;
+                    bfsQueue[tail++] = next;
+                }
+            }
+        }
+    }
+
+    private int bfsDistanceTo(int cell) {
+        return bfsStamp[cell] == stamp ? bfsDistance[cell] : INF;
+    }
+
+    /**
+     * connects start and goal to the abstract graph, searches it and refines the result
+     * @return cells strictly between start and goal, or null if the abstract graph has no path
+     */
+    private int[] abstractSearch(int start, int goal) {
+        int startNode = nodeCount;
+        int goalNode = nodeCount + 1;
+        int startCluster = clusterOf(start);
+        int goalCluster = clusterOf(goal);
+
+        // distances from the start and goal to the abstract nodes of their clusters
+        clusterBfs(start, startCluster);
+        int[] startDistances = new int[clusterNodes[startCluster].length];
+        for (int i = 0; i < startDistances.length; i++) {
+            startDistances[i] = bfsDistanceTo(nodeCell[clusterNodes[startCluster][i]]);
+        }
+        int startToGoal = startCluster == goalCluster ? bfsDistanceTo(goal) : INF;
+        clusterBfs(goal, goalCluster);
+        int[] goalDistances = new int[clusterNodes[goalCluster].length];
+        for (int i = 0; i < goalDistances.length; i++) {
+            goalDistances[i] = bfsDistanceTo(nodeCell[clusterNodes[goalCluster][i]]);
+        }
+
+        int goalX = goal % xExtent;
+        int goalY = goal / xExtent;
+        abstractSearchStamp++;
+        open.clear();
+        abstractStamp[startNode] = abstractSearchStamp;
+        abstractG[startNode] = 0;
+        abstractParent[startNode] = -1;
+        abstractClosed[startNode] = false;
+        open.push(PackedMinHeap.pack(GridAStarSearch.heuristic(start % xExtent, start / xExtent, goalX, goalY), startNode));
+
+        while (!open.isEmpty()) {
+            int node = PackedMinHeap.index(open.pop());
+            if (abstractClosed[node]) continue;
+            if (node == goalNode) return refine(start, goal);
+            abstractClosed[node] = true;
+            nodesExpanded++;
+
+            if (node == startNode) {
+                int[] nodes = clusterNodes[startCluster];
+                for (int i = 0; i < nodes.length; i++) {
+                    relax(node, nodes[i], startDistances[i], goalX, goalY);
+                }
+                relax(node, goalNode, startToGoal, goalX, goalY);
+                continue;
+            }
+
+            int cluster = nodeCluster[node];
+            int[] nodes = clusterNodes[cluster];
+            int[] distances = clusterDistances[cluster];
+            int row = nodeSlot[node] * nodes.length;
+            for (int i = 0; i < nodes.length; i++) {
+                relax(node, nodes[i], distances[row + i], goalX, goalY);
+            }
+            if (cluster == goalCluster) {
+                relax(node, goalNode, goalDistances[nodeSlot[node]], goalX, goalY);
+            }
+            if (nodeCell[node] != enemyCell) {
+                for (int partner : nodePartners[node]) {
+                    if (nodeCell[partner] != enemyCell) relax(node, partner, 1, goalX, goalY);
+                }
+            }
+        }
+        return null;
+    }
+
+    private void relax(int node, int next, int cost, int goalX, int goalY) {
+        if (cost >= INF || node == next) return;
+        int nextG = abstractG[node] + cost;
+        if (abstractStamp[next] == abstractSearchStamp) {
+            if (abstractClosed[next] || abstractG[next] <= nextG) return;
+        } else {
+            abstractStamp[next] = abstractSearchStamp;
+            abstractClosed[next] = false;
+        }
+        abstractG[next] = nextG;
+        abstractParent[next] = node;
+        int cell = next < nodeCount ? nodeCell[next] : goalX + goalY * xExtent;
+        open.push(PackedMinHeap.pack(nextG + GridAStarSearch.heuristic(cell % xExtent, cell / xExtent, goalX, goalY), next));
+    }
+
+    /**
+     * turns the abstract path into single cell moves, searching only inside one cluster at a
+     * time, and notes where on the path the abstract nodes lie in refinedWaypoints
+     */
+    private int[] refine(int start, int goal) {
+        int goalNode = nodeCount + 1;
+        int count = 0;
+        for (int node = goalNode; node >= 0; node = abstractParent[node]) count++;
+        int[] waypoints = new int[count];
+        int node = goalNode;
+        for (int i = count - 1; i >= 0; i--) {
+            waypoints[i] = node == goalNode ? goal : node == nodeCount ? start : nodeCell[node];
+            node = abstractParent[node];
+        }
+
+        int[] path = new int[abstractG[goalNode] + 1];
+        int length = 0;
+        if (refinedWaypoints.length < waypoints.length) refinedWaypoints = new int[waypoints.length];
+        refinedWaypointCount = 0;
+        for (int i = 1; i < waypoints.length; i++) {
+            int from = waypoints[i - 1];
+            int to = waypoints[i];
+            if (clusterOf(from) != clusterOf(to)) {
+                // entrance pair, one step over the border
+                path[length++] = to;
+            } else {
+                clusterBfs(to, clusterOf(to));
+                // walking parents from the start of the segment leads to its end
+                for (int cell = bfsParent[from]; cell >= 0; cell = bfsParent[cell]) {
+                    path[length++] = cell;
+                }
+            }
+            // every segment ends on its abstract node, but the last one ends on the goal
+            if (i < waypoints.length - 1) refinedWaypoints[refinedWaypointCount++] = length - 1;
+        }
+        // the last cell is the goal itself
+        return Arrays.copyOf(path, Math.max(0, length - 1));
+    }
+}
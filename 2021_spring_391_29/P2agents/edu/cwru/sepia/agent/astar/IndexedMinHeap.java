@@ -0,0 +1,125 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of grid cells keyed by a long, supporting update and removal of any cell.
+ *
+ * Unlike PackedMinHeap each cell is in the heap at most once; positionOf maps a cell to its
+ * slot so incremental searches can re-key or drop a cell in O(log n).
+ */
+public class IndexedMinHeap {
+    private long[] keys;
+    private int[] cells;
+    // heap slot of every cell, -1 if the cell is not in the heap
+    private final int[] positionOf;
+    private int size;
+
+    /**
+     * constructor for IndexedMinHeap
+     * @param cellCount number of distinct cells that may be added
+     */
+    public IndexedMinHeap(int cellCount) {
+        keys = new long[64];
+        cells = new int[64];
+        positionOf = new int[cellCount];
+        Arrays.fill(positionOf, -1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int cell) {
+        return positionOf[cell] >= 0;
+    }
+
+    /**
+     * @return the smallest key, or Long.MAX_VALUE if the heap is empty
+     */
+    public long topKey() {
+        return size == 0 ? Long.MAX_VALUE : keys[0];
+    }
+
+    public int top() {
+        return cells[0];
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            positionOf[cells[i]] = -1;
+        }
+        size = 0;
+    }
+
+    /**
+     * adds the cell with the given key, or re-keys it if it is already in the heap
+     * @param cell
+     * @param key
+     */
+    public void insertOrUpdate(int cell, long key) {
+        int i = positionOf[cell];
+        if (i < 0) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                cells = Arrays.copyOf(cells, size * 2);
+            }
+            i = size++;
+            place(i, cell, key);
+            siftUp(i);
+        } else if (key < keys[i]) {
+            keys[i] = key;
+            siftUp(i);
+        } else {
+            keys[i] = key;
+            siftDown(i);
+        }
+    }
+
+    /**
+     * removes the cell if it is in the heap
+     * @param cell
+     */
+    public void remove(int cell) {
+        int i = positionOf[cell];
+        if (i < 0) return;
+        positionOf[cell] = -1;
+        size--;
+        if (i == size) return;
+        place(i, cells[size], keys[size]);
+        siftDown(i);
+        siftUp(i);
+    }
+
+    private void place(int i, int cell, long key) {
+        keys[i] = key;
+        cells[i] = cell;
+        positionOf[cell] = i;
+    }
+
+    private void siftUp(int i) {
+        long key = keys[i];
+        int cell = cells[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[parent] <= key) break;
+            place(i, cells[parent], keys[parent]);
+            i = parent;
+        }
+        place(i, cell, key);
+    }
+
+    private void siftDown(int i) {
+        long key = keys[i];
+        int cell = cells[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && keys[child + 1] < keys[child]) child++;
+            if (key <= keys[child]) break;
+            place(i, cells[child], keys[child]);
+            i = child;
+        }
+        place(i, cell, key);
+    }
+}
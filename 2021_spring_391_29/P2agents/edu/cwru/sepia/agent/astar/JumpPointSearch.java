@@ -0,0 +1,187 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.util.Arrays;
+
+/**
+ * Jump Point Search (Harabor and Grastien) for the 8-connected, unit cost grid.
+ *
+ * Instead of pushing every neighbour, each expansion only follows the directions that can't be
+ * reached as cheaply without going through the current cell, and slides along them until it
+ * meets the goal or a cell with a forced neighbour. Only those jump points enter the open list,
+ * so open areas cost a handful of expansions. Diagonal moves may cut corners, as in
+ * GridAStarSearch. The jump points are expanded back into single cell moves at the end.
+ */
+public class JumpPointSearch implements GridPathSearch {
+    private final int xExtent;
+    private final int yExtent;
+    private final int[] gScore;
+    private final int[] parent;
+    private final int[] visitedStamp;
+    private final long[] closed;
+    private final PackedMinHeap open;
+    private int stamp = 0;
+    private int nodesExpanded = 0;
+
+    // set for the duration of one search
+    private ObstacleGrid obstacles;
+    private int enemyCell;
+    private int goalX;
+    private int goalY;
+
+    /**
+     * constructor for JumpPointSearch
+     * @param xExtent Width of the map
+     * @param yExtent Height of the map
+     */
+    public JumpPointSearch(int xExtent, int yExtent) {
+        this.xExtent = xExtent;
+        this.yExtent = yExtent;
+        int cells = xExtent * yExtent;
+        gScore = new int[cells];
+        parent = new int[cells];
+        visitedStamp = new int[cells];
+        closed = new long[(cells + 63) >>> 6];
+        open = new PackedMinHeap(256);
+    }
+
+    @Override
+    public int getNodesExpanded() {
+        return nodesExpanded;
+    }
+
+    @Override
+    public int[] search(int startX, int startY, int goalX, int goalY, ObstacleGrid obstacles, int enemyCell) {
+        this.obstacles = obstacles;
+        this.enemyCell = enemyCell;
+        this.goalX = goalX;
+        this.goalY = goalY;
+        int start = startY * xExtent + startX;
+        int goal = goalY * xExtent + goalX;
+
+        stamp++;
+        Arrays.fill(closed, 0L);
+        open.clear();
+
+        visitedStamp[start] = stamp;
+        gScore[start] = 0;
+        parent[start] = -1;
+        open.push(PackedMinHeap.pack(GridAStarSearch.heuristic(startX, startY, goalX, goalY), start));
+
+        while (!open.isEmpty()) {
+            int current = PackedMinHeap.index(open.pop());
+            if (GridAStarSearch.isSet(closed, current)) continue;
+            if (current == goal) return buildPath(start, goal);
+            GridAStarSearch.set(closed, current);
+            nodesExpanded++;
+
+            int x = current % xExtent;
+            int y = current / xExtent;
+            if (parent[current] < 0) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    for (int dy = -1; dy <= 1; dy++) {
+                        if (dx != 0 || dy != 0) jumpFrom(current, x, y, dx, dy);
+                    }
+                }
+                continue;
+            }
+
+            // direction we arrived in, jumps always move along a straight line or a diagonal
+            int dx = Integer.signum(x - parent[current] % xExtent);
+            int dy = Integer.signum(y - parent[current] / xExtent);
+            if (dx != 0 && dy != 0) {
+                jumpFrom(current, x, y, dx, dy);
+                jumpFrom(current, x, y, dx, 0);
+                jumpFrom(current, x, y, 0, dy);
+                if (isBlocked(x - dx, y)) jumpFrom(current, x, y, -dx, dy);
+                if (isBlocked(x, y - dy)) jumpFrom(current, x, y, dx, -dy);
+            } else if (dx != 0) {
+                jumpFrom(current, x, y, dx, 0);
+                if (isBlocked(x, y + 1)) jumpFrom(current, x, y, dx, 1);
+                if (isBlocked(x, y - 1)) jumpFrom(current, x, y, dx, -1);
+            } else {
+                jumpFrom(current, x, y, 0, dy);
+                if (isBlocked(x + 1, y)) jumpFrom(current, x, y, 1, dy);
+                if (isBlocked(x - 1, y)) jumpFrom(current, x, y, -1, dy);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * out of bounds counts as blocked
+     */
+    private boolean isBlocked(int x, int y) {
+        if (x < 0 || x >= xExtent || y < 0 || y >= yExtent) return true;
+        int cell = y * xExtent + x;
+        return cell == enemyCell || obstacles.isBlocked(cell);
+    }
+
+    /**
+     * jumps from the cell in one direction and adds the jump point found to the open list
+     */
+    private void jumpFrom(int current, int x, int y, int dx, int dy) {
+        int jumpPoint = jump(x, y, dx, dy);
+        if (jumpPoint < 0 || GridAStarSearch.isSet(closed, jumpPoint)) return;
+        int jumpX = jumpPoint % xExtent;
+        int jumpY = jumpPoint / xExtent;
+        // every step along a straight line or diagonal costs 1
+        int nextCost = gScore[current] + Math.max(Math.abs(jumpX - x), Math.abs(jumpY - y));
+        if (visitedStamp[jumpPoint] == stamp && gScore[jumpPoint] <= nextCost) return;
+        visitedStamp[jumpPoint] = stamp;
+        gScore[jumpPoint] = nextCost;
+        parent[jumpPoint] = current;
+        open.push(PackedMinHeap.pack(nextCost + GridAStarSearch.heuristic(jumpX, jumpY, goalX, goalY), jumpPoint));
+    }
+
+    /**
+     * slides from (x, y) in direction (dx, dy) until it reaches the goal, a cell with a forced
+     * neighbour or (for diagonals) a cell from which a straight jump finds a jump point
+     * @return the jump point cell, or -1 if the slide runs into an obstacle
+     */
+    private int jump(int x, int y, int dx, int dy) {
+        while (true) {
+            x += dx;
+            y += dy;
+            if (isBlocked(x, y)) return -1;
+            if (x == goalX && y == goalY) return y * xExtent + x;
+            if (dx != 0 && dy != 0) {
+                if ((isBlocked(x - dx, y) && !isBlocked(x - dx, y + dy))
+                        || (isBlocked(x, y - dy) && !isBlocked(x + dx, y - dy))) {
+                    return y * xExtent + x;
+                }
+                if (jump(x, y, dx, 0) >= 0 || jump(x, y, 0, dy) >= 0) return y * xExtent + x;
+            } else if (dx != 0) {
+                if ((isBlocked(x, y + 1) && !isBlocked(x + dx, y + 1))
+                        || (isBlocked(x, y - 1) && !isBlocked(x + dx, y - 1))) {
+                    return y * xExtent + x;
+                }
+            } else {
+                if ((isBlocked(x + 1, y) && !isBlocked(x + 1, y + dy))
+                        || (isBlocked(x - 1, y) && !isBlocked(x - 1, y + dy))) {
+                    return y * xExtent + x;
+                }
+            }
+        }
+    }
+
+    /**
+     * walks the jump point parents back from the goal and fills in the cells between them
+     * @return cells strictly between start and goal, first move first
+     */
+    private int[] buildPath(int start, int goal) {
+        int[] path = new int[Math.max(0, gScore[goal] - 1)];
+        // the cell reached after k moves goes in path[k - 1], the goal (k = gScore[goal]) is left out
+        int i = gScore[goal];
+        int cell = goal;
+        while (cell != start) {
+            int from = parent[cell];
+            int dx = Integer.signum(cell % xExtent - from % xExtent);
+            int dy = Integer.signum(cell / xExtent - from / xExtent);
+            for (int step = cell; step != from; step -= dy * xExtent + dx) {
+                if (--i < path.length) path[i] = step;
+            }
+            cell = from;
+        }
+        return path;
+    }
+}
@@ -0,0 +1,85 @@
+package edu.cwru.sepia.agent.astar;
+
+/**
+ * Immutable bitmap of the cells that are permanently blocked (resource nodes such as trees).
+ *
+ * Cells are flat indices (y * xExtent + x) packed 64 to a long. The grid is built once per map
+ * and shared by every search; when a resource node disappears, cleared returns a patched copy
+ * so grids already handed out are never modified underneath a search.
+ *
+ * The version is a hash of the layout, so two grids of the same map compare equal across
+ * episodes and runs.
+ */
+public final class ObstacleGrid {
+    private final int xExtent;
+    private final int yExtent;
+    private final long[] bits;
+    private final long version;
+
+    private ObstacleGrid(int xExtent, int yExtent, long[] bits) {
+        this.xExtent = xExtent;
+        this.yExtent = yExtent;
+        this.bits = bits;
+        long hash = xExtent * 31L + yExtent;
+        for (long word : bits) {
+            hash = hash * 0x9E3779B97F4A7C15L + word;
+            hash ^= hash >>> 29;
+        }
+        this.version = hash;
+    }
+
+    /**
+     * builds a grid with the given cells blocked
+     * @param xExtent Width of the map
+     * @param yExtent Height of the map
+     * @param blockedCells flat indices of blocked cells
+     * @return
+     */
+    public static ObstacleGrid fromCells(int xExtent, int yExtent, int[] blockedCells) {
+        long[] bits = new long[(xExtent * yExtent + 63) >>> 6];
+        for (int cell : blockedCells) {
+            bits[cell >>> 6] |= 1L << cell;
+        }
+        return new ObstacleGrid(xExtent, yExtent, bits);
+    }
+
+    /**
+     * returns a copy of this grid with the given cell free, or this grid if it already was
+     * @param cell
+     * @return
+     */
+    public ObstacleGrid cleared(int cell) {
+        if (!isBlocked(cell)) return this;
+        long[] patched = bits.clone();
+        patched[cell >>> 6] &= ~(1L << cell);
+        return new ObstacleGrid(xExtent, yExtent, patched);
+    }
+
+    public int getXExtent() {
+        return xExtent;
+    }
+
+    public int getYExtent() {
+        return yExtent;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int cell(int x, int y) {
+        return y * xExtent + x;
+    }
+
+    public boolean inBounds(int x, int y) {
+        return x >= 0 && x < xExtent && y >= 0 && y < yExtent;
+    }
+
+    public boolean isBlocked(int cell) {
+        return (bits[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    public boolean isBlocked(int x, int y) {
+        return isBlocked(y * xExtent + x);
+    }
+}
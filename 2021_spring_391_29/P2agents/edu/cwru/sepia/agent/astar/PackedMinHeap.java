@@ -0,0 +1,96 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of primitive long keys.
+ *
+ * Callers pack a priority into the high 32 bits and a node index into the low 32 bits
+ * (see pack), so pushing and polling never allocates and comparisons are a single long compare.
+ * Entries are never decreased in place: a cheaper duplicate is pushed instead and the stale
+ * one is skipped by the caller when it is polled.
+ */
+public class PackedMinHeap {
+    private long[] keys;
+    private int size;
+
+    /**
+     * constructor for PackedMinHeap
+     * @param initialCapacity number of keys the heap can hold before growing
+     */
+    public PackedMinHeap(int initialCapacity) {
+        keys = new long[Math.max(16, initialCapacity)];
+    }
+
+    /**
+     * packs a non-negative priority and a node index into a single heap key
+     * @param priority
+     * @param index
+     * @return
+     */
+    public static long pack(int priority, int index) {
+        return ((long) priority << 32) | (index & 0xffffffffL);
+    }
+
+    public static int priority(long key) {
+        return (int) (key >>> 32);
+    }
+
+    public static int index(long key) {
+        return (int) key;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public long peek() {
+        return keys[0];
+    }
+
+    /**
+     * adds a key and sifts it up to its place
+     * @param key
+     */
+    public void push(long key) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[parent] <= key) break;
+            keys[i] = keys[parent];
+            i = parent;
+        }
+        keys[i] = key;
+    }
+
+    /**
+     * removes and returns the smallest key
+     * @return
+     */
+    public long pop() {
+        long top = keys[0];
+        long last = keys[--size];
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && keys[child + 1] < keys[child]) child++;
+            if (last <= keys[child]) break;
+            keys[i] = keys[child];
+            i = child;
+        }
+        keys[i] = last;
+        return top;
+    }
+}
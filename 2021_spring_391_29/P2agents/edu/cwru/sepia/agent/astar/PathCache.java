@@ -0,0 +1,159 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of planned paths, keyed by start cell, goal cell, enemy footman
+ * cell and ObstacleGrid version.
+ *
+ * A miss on the exact start can still be answered from a cached path to the same goal over
+ * the same layout that walks through the start: the rest of a shortest path is itself a
+ * shortest path, so its suffix is returned. The cache can be written to and read from the
+ * agent's player data so repeated runs on the same map skip planning.
+ */
+public class PathCache {
+    // bumped whenever the saved format changes
+    private static final int FORMAT = 1;
+
+    private final int capacity;
+    private final LinkedHashMap<Key, int[]> paths;
+    private int hits = 0;
+    private int suffixHits = 0;
+    private int misses = 0;
+
+    private static final class Key {
+        final int start;
+        final int goal;
+        final int enemyCell;
+        final long version;
+
+        Key(int start, int goal, int enemyCell, long version) {
+            this.start = start;
+            this.goal = goal;
+            this.enemyCell = enemyCell;
+            this.version = version;
+        }
+
+        boolean sameLayout(Key that) {
+            return goal == that.goal && enemyCell == that.enemyCell && version == that.version;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) return false;
+            Key that = (Key) obj;
+            return start == that.start && sameLayout(that);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (version ^ (version >>> 32)) * 31 * 31 * 31 + start * 31 * 31 + goal * 31 + enemyCell;
+        }
+    }
+
+    /**
+     * constructor for PathCache
+     * @param capacity most paths kept, the least recently used one is dropped past that
+     */
+    public PathCache(final int capacity) {
+        this.capacity = capacity;
+        this.paths = new LinkedHashMap<Key, int[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, int[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public int getHits() {
+        return hits;
+    }
+
+    public int getSuffixHits() {
+        return suffixHits;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the cached path in GridPathSearch.search format, or null on a miss
+     */
+    public int[] get(int start, int goal, int enemyCell, ObstacleGrid obstacles) {
+        Key key = new Key(start, goal, enemyCell, obstacles.getVersion());
+        int[] path = paths.get(key);
+        if (path != null) {
+            hits++;
+            return path.clone();
+        }
+        for (Map.Entry<Key, int[]> entry : paths.entrySet()) {
+            if (!entry.getKey().sameLayout(key)) continue;
+            int[] cached = entry.getValue();
+            for (int i = 0; i < cached.length; i++) {
+                if (cached[i] == start) {
+                    suffixHits++;
+                    int[] suffix = new int[cached.length - i - 1];
+                    System.arraycopy(cached, i + 1, suffix, 0, suffix.length);
+                    return suffix;
+                }
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    public void put(int start, int goal, int enemyCell, ObstacleGrid obstacles, int[] path) {
+        if (capacity <= 0 || path == null) return;
+        paths.put(new Key(start, goal, enemyCell, obstacles.getVersion()), path.clone());
+    }
+
+    /**
+     * writes every cached path, least recently used first, leaving the stream open
+     * @param os
+     * @throws IOException
+     */
+    public void save(OutputStream os) throws IOException {
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(FORMAT);
+        out.writeInt(paths.size());
+        for (Map.Entry<Key, int[]> entry : paths.entrySet()) {
+            Key key = entry.getKey();
+            out.writeInt(key.start);
+            out.writeInt(key.goal);
+            out.writeInt(key.enemyCell);
+            out.writeLong(key.version);
+            out.writeInt(entry.getValue().length);
+            for (int cell : entry.getValue()) {
+                out.writeInt(cell);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * adds the paths written by save to this cache
+     * @param is
+     * @throws IOException if the data is not in the current format
+     */
+    public void load(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(is);
+        int format = in.readInt();
+        if (format != FORMAT) throw new IOException("Unknown path cache format " + format);
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            Key key = new Key(in.readInt(), in.readInt(), in.readInt(), in.readLong());
+            int[] path = new int[in.readInt()];
+            for (int j = 0; j < path.length; j++) {
+                path[j] = in.readInt();
+            }
+            if (capacity > 0) paths.put(key, path);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package edu.cwru.sepia.agent.astar;
+
+/**
+ * Which cells the current path still has to walk through, and how many steps ahead each is.
+ *
+ * A bitset marks the cells of the path and stepOf stores each cell's step number (1 is the
+ * first move), so looking up a cell is O(1). advance is called every time the agent takes the
+ * next step off its path; cells whose step is behind the current one no longer count.
+ */
+public class PathIndex {
+    private final int xExtent;
+    private final int[] stepOf;
+    private final long[] onPath;
+    private int[] cells = new int[0];
+    // step the agent is currently moving to, 0 before the first move
+    private int currentStep = 0;
+
+    /**
+     * constructor for PathIndex
+     * @param xExtent Width of the map
+     * @param yExtent Height of the map
+     */
+    public PathIndex(int xExtent, int yExtent) {
+        this.xExtent = xExtent;
+        stepOf = new int[xExtent * yExtent];
+        onPath = new long[(xExtent * yExtent + 63) >>> 6];
+    }
+
+    /**
+     * replaces the indexed path
+     * @param pathCells cells of the new path, first move first
+     */
+    public void reset(int[] pathCells) {
+        for (int cell : cells) {
+            onPath[cell >>> 6] &= ~(1L << cell);
+        }
+        cells = pathCells;
+        currentStep = 0;
+        for (int i = 0; i < cells.length; i++) {
+            onPath[cells[i] >>> 6] |= 1L << cells[i];
+            stepOf[cells[i]] = i + 1;
+        }
+    }
+
+    /**
+     * the agent took the next step off its path
+     */
+    public void advance() {
+        currentStep++;
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @return how many steps after the current one the path reaches the cell (0 if the agent is
+     * moving onto it right now), or -1 if the rest of the path does not go through it
+     */
+    public int stepsAhead(int x, int y) {
+        int cell = y * xExtent + x;
+        if ((onPath[cell >>> 6] & (1L << cell)) == 0) return -1;
+        int steps = stepOf[cell] - currentStep;
+        return steps >= 0 ? steps : -1;
+    }
+}
@@ -0,0 +1,147 @@
+package edu.cwru.sepia.agent.astar;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * One search problem for the planner benchmark: an obstacle grid with the footman's start, the
+ * townhall and the enemy footman, either read from a SEPIA map file or generated.
+ */
+public class BenchmarkMap {
+    public final String name;
+    public final ObstacleGrid obstacles;
+    public final int startX;
+    public final int startY;
+    public final int goalX;
+    public final int goalY;
+    // -1 if the map has no enemy footman
+    public final int enemyCell;
+
+    /**
+     * constructor for BenchmarkMap
+     * @param name
+     * @param obstacles
+     * @param startX
+     * @param startY
+     * @param goalX
+     * @param goalY
+     * @param enemyCell
+     */
+    public BenchmarkMap(String name, ObstacleGrid obstacles, int startX, int startY, int goalX, int goalY, int enemyCell) {
+        this.name = name;
+        this.obstacles = obstacles;
+        this.startX = startX;
+        this.startY = startY;
+        this.goalX = goalX;
+        this.goalY = goalY;
+        this.enemyCell = enemyCell;
+    }
+
+    /**
+     * Reads a map saved by SEPIA, such as data/maze_16x16.xml. Player 0's footman is the start,
+     * the townhall of the other player is the goal and every resource node is an obstacle.
+     *
+     * @param file
+     * @return
+     * @throws Exception if the file can't be parsed or lacks the footman or townhall
+     */
+    public static BenchmarkMap load(File file) throws Exception {
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+        Element root = document.getDocumentElement();
+        int xExtent = Integer.parseInt(root.getAttribute("xExtent"));
+        int yExtent = Integer.parseInt(root.getAttribute("yExtent"));
+
+        int[] start = null;
+        int[] goal = null;
+        int enemyCell = -1;
+        NodeList players = root.getElementsByTagName("player");
+        for (int i = 0; i < players.getLength(); i++) {
+            Element player = (Element) players.item(i);
+            boolean ours = text(player, "ID").equals("0");
+            // template id -> unit type, each player has its own templates
+            Map<String, String> templateNames = new HashMap<>();
+            for (Element template : children(player, "template")) {
+                templateNames.put(text(template, "ID"), text(template, "name"));
+            }
+            for (Element unit : children(player, "unit")) {
+                String type = templateNames.get(text(unit, "templateID"));
+                int[] position = {Integer.parseInt(text(unit, "xPosition")), Integer.parseInt(text(unit, "yPosition"))};
+                if (ours && "Footman".equals(type) && start == null) {
+                    start = position;
+                } else if (!ours && "TownHall".equals(type)) {
+                    goal = position;
+                } else if (!ours && "Footman".equals(type)) {
+                    enemyCell = position[1] * xExtent + position[0];
+                }
+            }
+        }
+        if (start == null || goal == null) throw new IllegalArgumentException(file + " needs a footman and an enemy townhall");
+
+        NodeList resources = root.getElementsByTagName("resourceNode");
+        int[] cells = new int[resources.getLength()];
+        for (int i = 0; i < cells.length; i++) {
+            Element resource = (Element) resources.item(i);
+            cells[i] = Integer.parseInt(text(resource, "yPosition")) * xExtent + Integer.parseInt(text(resource, "xPosition"));
+        }
+        String name = file.getName().replace(".xml", "");
+        return new BenchmarkMap(name, ObstacleGrid.fromCells(xExtent, yExtent, cells), start[0], start[1], goal[0], goal[1], enemyCell);
+    }
+
+    /**
+     * Generates a size x size map with trees scattered at random, the footman in the top left
+     * corner and the townhall in the bottom right one. Layouts without a path are thrown away,
+     * so the same seed always gives the same solvable map.
+     *
+     * @param size side length of the map
+     * @param density fraction of cells that are trees
+     * @param seed
+     * @return
+     */
+    public static BenchmarkMap synthetic(int size, double density, long seed) {
+        Random random = new Random(seed);
+        GridAStarSearch check = new GridAStarSearch(size, size);
+        while (true) {
+            int[] cells = new int[size * size];
+            int count = 0;
+            for (int cell = 0; cell < size * size; cell++) {
+                if (random.nextDouble() < density) cells[count++] = cell;
+            }
+            int[] trees = new int[count];
+            System.arraycopy(cells, 0, trees, 0, count);
+            ObstacleGrid obstacles = ObstacleGrid.fromCells(size, size, trees);
+            // keep the corners free for the footman and the townhall
+            obstacles = obstacles.cleared(0).cleared(size * size - 1);
+            if (check.search(0, 0, size - 1, size - 1, obstacles, -1) != null) {
+                return new BenchmarkMap("random_" + size + "x" + size, obstacles, 0, 0, size - 1, size - 1, -1);
+            }
+        }
+    }
+
+    private static String text(Element parent, String tag) {
+        List<Element> matches = children(parent, tag);
+        if (matches.isEmpty()) throw new IllegalArgumentException("Missing <" + tag + "> in <" + parent.getTagName() + ">");
+        return matches.get(0).getTextContent().trim();
+    }
+
+    /**
+     * @return the direct children of parent with the given tag, getElementsByTagName would
+     * also return nested ones
+     */
+    private static List<Element> children(Element parent, String tag) {
+        List<Element> matches = new ArrayList<>();
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element && ((Element) node).getTagName().equals(tag)) matches.add((Element) node);
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,217 @@
+package edu.cwru.sepia.agent.astar;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Times the grid searches AstarAgent plans with, outside of the SEPIA runner.
+ *
+ * Every bundled maze map and a set of generated maps are solved by each search strategy, in
+ * two ways. A cold plan gets a fresh instance each iteration, like AstarAgent makes one per
+ * episode, so dstar and hpa do their full first plan, precomputation included. A replan reuses
+ * one instance the way AstarAgent does during an episode: after an untimed first plan the
+ * footman walks along the path it was given, and every so many steps the enemy footman steps
+ * onto that path a few cells ahead of it and the path is planned again from where the footman
+ * stands. Only the search call itself is measured. For every map and strategy it prints the
+ * path length, nodes expanded per search, bytes allocated per search and latency percentiles
+ * of both.
+ *
+ * Arguments are optional name=value pairs:
+ * data: directory holding the maze_*.xml maps, data by default
+ * search: comma separated strategies, all of astar,dstar,jps,hpa,bidirectional by default
+ * maxSize: largest generated map, 2048 by default, 0 for none
+ * density: fraction of trees on generated maps, 0.25 by default
+ * ahead: how many steps ahead of the footman the enemy blocks the path on a replan, 5 by default
+ * warmup: untimed searches before measuring, 5 by default
+ * iterations: timed searches, 20 by default. Replans stop early when the footman gets within
+ * ahead steps of the townhall or the enemy cuts the only way there, and a map without any
+ * timed replan gets no replan row.
+ */
+public class PlannerBenchmark {
+    private static final String[] MAZES = {"maze_8x8.xml", "maze_16x16.xml", "maze_16x16h.xml", "maze_16x16n.xml"};
+
+    private File dataDirectory = new File("data");
+    private String[] strategies = {"astar", "dstar", "jps", "hpa", "bidirectional"};
+    private int maxSize = 2048;
+    private double density = 0.25;
+    private int ahead = 5;
+    private int warmup = 5;
+    private int iterations = 20;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        PlannerBenchmark benchmark = new PlannerBenchmark();
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            if (option.length != 2) {
+                System.err.println("Ignoring argument " + arg + ", expected name=value");
+                continue;
+            }
+            switch (option[0]) {
+                case "data":
+                    benchmark.dataDirectory = new File(option[1]);
+                    break;
+                case "search":
+                    benchmark.strategies = option[1].toLowerCase().split(",");
+                    break;
+                case "maxSize":
+                    benchmark.maxSize = Integer.parseInt(option[1]);
+                    break;
+                case "density":
+                    benchmark.density = Double.parseDouble(option[1]);
+                    break;
+                case "ahead":
+                    benchmark.ahead = Integer.parseInt(option[1]);
+                    break;
+                case "warmup":
+                    benchmark.warmup = Integer.parseInt(option[1]);
+                    break;
+                case "iterations":
+                    benchmark.iterations = Integer.parseInt(option[1]);
+                    break;
+                default:
+                    System.err.println("Ignoring unknown argument " + arg);
+            }
+        }
+        benchmark.run();
+    }
+
+    private void run() throws Exception {
+        List<BenchmarkMap> maps = new ArrayList<>();
+        for (String maze : MAZES) {
+            maps.add(BenchmarkMap.load(new File(dataDirectory, maze)));
+        }
+        for (int size = 64; size <= maxSize; size *= 2) {
+            maps.add(BenchmarkMap.synthetic(size, density, size));
+        }
+
+        System.out.println(String.format("%-16s %-14s %-7s %6s %10s %12s %10s %10s %10s %10s",
+                "map", "search", "plan", "length", "nodes", "bytes", "p50 us", "p90 us", "p99 us", "max us"));
+        for (BenchmarkMap map : maps) {
+            for (String strategy : strategies) {
+                measure(map, strategy);
+                measureReplans(map, strategy);
+            }
+        }
+    }
+
+    /**
+     * Creates the strategy the same way AstarAgent.createPathSearch does.
+     */
+    private static GridPathSearch createPathSearch(String strategy, int xExtent, int yExtent) {
+        switch (strategy) {
+            case "dstar":
+                return new DStarLiteSearch(xExtent, yExtent);
+            case "jps":
+                return new JumpPointSearch(xExtent, yExtent);
+            case "hpa":
+                return new HierarchicalSearch(xExtent, yExtent, 10);
+            case "bidirectional":
+                return new BidirectionalAStarSearch(xExtent, yExtent);
+            case "astar":
+                return new GridAStarSearch(xExtent, yExtent);
+            default:
+                throw new IllegalArgumentException("Unknown search " + strategy);
+        }
+    }
+
+    private void measure(BenchmarkMap map, String strategy) {
+        int xExtent = map.obstacles.getXExtent();
+        int yExtent = map.obstacles.getYExtent();
+        long[] latencies = new long[iterations];
+        long nodes = 0;
+        long bytes = 0;
+        int length = -1;
+        for (int i = -warmup; i < iterations; i++) {
+            GridPathSearch search = createPathSearch(strategy, xExtent, yExtent);
+            long threadID = Thread.currentThread().getId();
+            long allocatedBefore = allocatedBytes(threadID);
+            long startTime = System.nanoTime();
+            int[] path = search.search(map.startX, map.startY, map.goalX, map.goalY, map.obstacles, map.enemyCell);
+            long elapsed = System.nanoTime() - startTime;
+            long allocatedAfter = allocatedBytes(threadID);
+            if (i < 0) continue;
+            latencies[i] = elapsed;
+            nodes += search.getNodesExpanded();
+            bytes = allocatedBefore < 0 || bytes < 0 ? -1 : bytes + allocatedAfter - allocatedBefore;
+            length = path == null ? -1 : path.length;
+        }
+
+        print(map.name, strategy, "cold", length, nodes / iterations, bytes < 0 ? -1 : bytes / iterations, latencies);
+    }
+
+    /**
+     * Times replans on one instance as the footman walks the map. The footman advances by an
+     * even share of the first path between replans, so the warmup and timed replans together
+     * cover about the whole of it, and the enemy footman blocks the latest path ahead steps
+     * ahead of it. The length printed is that of the first path.
+     */
+    private void measureReplans(BenchmarkMap map, String strategy) {
+        int xExtent = map.obstacles.getXExtent();
+        int yExtent = map.obstacles.getYExtent();
+        GridPathSearch search = createPathSearch(strategy, xExtent, yExtent);
+        int[] path = search.search(map.startX, map.startY, map.goalX, map.goalY, map.obstacles, map.enemyCell);
+        if (path == null) return;
+        int length = path.length;
+        int stride = Math.max(1, length / (warmup + iterations + 1));
+        int footman = map.startY * xExtent + map.startX;
+
+        long[] latencies = new long[iterations];
+        long nodes = 0;
+        long bytes = 0;
+        int timed = 0;
+        for (int i = -warmup; i < iterations; i++) {
+            // the path holds neither the cell the footman stands on nor the goal
+            if (stride - 1 + ahead >= path.length) break;
+            footman = path[stride - 1];
+            int enemyCell = path[stride - 1 + ahead];
+            long nodesBefore = search.getNodesExpanded();
+            long threadID = Thread.currentThread().getId();
+            long allocatedBefore = allocatedBytes(threadID);
+            long startTime = System.nanoTime();
+            path = search.search(footman % xExtent, footman / xExtent, map.goalX, map.goalY, map.obstacles, enemyCell);
+            long elapsed = System.nanoTime() - startTime;
+            long allocatedAfter = allocatedBytes(threadID);
+            if (path == null) break;
+            if (i < 0) continue;
+            latencies[timed++] = elapsed;
+            nodes += search.getNodesExpanded() - nodesBefore;
+            bytes = allocatedBefore < 0 || bytes < 0 ? -1 : bytes + allocatedAfter - allocatedBefore;
+        }
+        if (timed == 0) return;
+        print(map.name, strategy, "replan", length, nodes / timed, bytes < 0 ? -1 : bytes / timed, Arrays.copyOf(latencies, timed));
+    }
+
+    /**
+     * prints one row, with the nodes and bytes per search, bytes -1 if they weren't counted
+     */
+    private static void print(String name, String strategy, String plan, int length, long nodes, long bytes, long[] latencies) {
+        Arrays.sort(latencies);
+        System.out.println(String.format("%-16s %-14s %-7s %6d %10d %12s %10.1f %10.1f %10.1f %10.1f",
+                name, strategy, plan, length, nodes, bytes < 0 ? "n/a" : Long.toString(bytes),
+                percentile(latencies, 0.5), percentile(latencies, 0.9), percentile(latencies, 0.99),
+                latencies[latencies.length - 1] / 1e3));
+    }
+
+    /**
+     * @return bytes the thread has allocated so far, or -1 on JVMs that don't count them
+     */
+    private long allocatedBytes(long threadID) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threadID);
+        }
+        return -1;
+    }
+
+    /**
+     * nearest rank percentile of sorted latencies, in microseconds
+     */
+    private static double percentile(long[] sorted, double fraction) {
+        int rank = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, rank)] / 1e3;
+    }
+}
@@ -0,0 +1,551 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Alpha beta search on a SearchBoard, the make and unmake counterpart of
+ * MinimaxAlphaBeta.alphaBetaValue.
+ *
+ * Given a ForkJoinPool the search runs on several threads following Young Brothers Wait: at a
+ * node with enough plys left below it the first child is searched alone, and only if it doesn't
+ * cut off are its younger brothers searched in parallel, each on its own copy of the board.
+ * The brothers share the node's window through a SplitPoint, so a brother that improves the
+ * value narrows the window of those still running and a cutoff stops them. All threads share
+ * the transposition table and the move ordering tables.
+ *
+ * With principal variation search every child but the eldest is first searched with a null
+ * window, just wide enough to show it is no better than the best child so far. Only a child that
+ * turns out better is searched again with the whole window. With good move ordering the eldest
+ * child is nearly always the best, and null windows cut off much more than the whole window.
+ *
+ * With quiescence search a position at the horizon isn't evaluated while the side to move can
+ * still attack. Only attacks are searched from it (SearchBoard.generateAttacks) until the side to
+ * move has none, with the evaluation as the value of not attacking, so the search doesn't stop
+ * halfway through an exchange.
+ */
+public class BoardSearch {
+    // plys that must be left below a node to search its children in parallel, smaller
+    // subtrees are searched faster than they are handed to another thread
+    private static final int MIN_SPLIT_DEPTH = 3;
+
+    // thrown in a brother whose split point, or one above it, was cut off
+    private static final SearchAbortedException SEARCH_ABORTED = new SearchAbortedException();
+
+    private final SearchBoard board;
+    private final TranspositionTable transpositionTable;
+    private final MoveOrdering moveOrdering;
+    private final ForkJoinPool pool;
+    private final long deadline;
+    // search the younger brothers with a null window first
+    private final boolean principalVariation;
+    // split point this search is a brother of, null for the search from the root
+    private final SplitPoint splitPoint;
+    private final TranspositionTable.Entry entry = new TranspositionTable.Entry();
+    // nodes visited by this search, the clock is only read every few nodes
+    private long nodesVisited = 0;
+    // value of the move bestMove picked last
+    private double bestValue;
+    // counts what the search does, null to count nothing
+    private SearchStatistics statistics;
+    // most quiescence nodes searched below a position at the horizon, 0 to evaluate it as it is
+    private int quiescenceNodes = 0;
+    // quiescence nodes left for the current position at the horizon
+    private int quiescenceNodesLeft;
+    // the search from the root this one is a brother below, itself for the search from the root
+    private BoardSearch root = this;
+    // set by stop() on the search from the root
+    private volatile boolean stopped = false;
+
+    /**
+     * constructor for BoardSearch
+     * @param board position to search from, left as it was found
+     * @param transpositionTable null to search without one
+     * @param moveOrdering null to search the moves in the order they are generated
+     * @param pool threads to search with, null to search on the calling thread only
+     * @param deadline System.nanoTime after which the search throws SearchTimeoutException, 0 for none
+     */
+    public BoardSearch(SearchBoard board, TranspositionTable transpositionTable, MoveOrdering moveOrdering,
+                       ForkJoinPool pool, long deadline) {
+        this(board, transpositionTable, moveOrdering, pool, deadline, false, null);
+    }
+
+    /**
+     * constructor for BoardSearch
+     * @param board position to search from, left as it was found
+     * @param transpositionTable null to search without one
+     * @param moveOrdering null to search the moves in the order they are generated
+     * @param pool threads to search with, null to search on the calling thread only
+     * @param deadline System.nanoTime after which the search throws SearchTimeoutException, 0 for none
+     * @param principalVariation whether to search every child but the eldest with a null window first
+     */
+    public BoardSearch(SearchBoard board, TranspositionTable transpositionTable, MoveOrdering moveOrdering,
+                       ForkJoinPool pool, long deadline, boolean principalVariation) {
+        this(board, transpositionTable, moveOrdering, pool, deadline, principalVariation, null);
+    }
+
+    private BoardSearch(SearchBoard board, TranspositionTable transpositionTable, MoveOrdering moveOrdering,
+                        ForkJoinPool pool, long deadline, boolean principalVariation, SplitPoint splitPoint) {
+        this.board = board;
+        this.transpositionTable = transpositionTable;
+        this.moveOrdering = moveOrdering;
+        this.pool = pool;
+        this.deadline = deadline;
+        this.principalVariation = principalVariation;
+        this.splitPoint = splitPoint;
+    }
+
+    /**
+     * @param statistics to count what the search does in, null (default) to count nothing
+     */
+    public void setStatistics(SearchStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * @param quiescenceNodes most quiescence nodes to search below each position at the horizon,
+     * 0 (default) to evaluate the positions as they are
+     */
+    public void setQuiescenceNodes(int quiescenceNodes) {
+        this.quiescenceNodes = quiescenceNodes;
+    }
+
+    /**
+     * Makes the search, and every brother below it, throw SearchTimeoutException within a few
+     * nodes as if the deadline had passed. Can be called from any thread, the search can't be
+     * started again afterwards.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    private static class SearchAbortedException extends RuntimeException {
+        SearchAbortedException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * The window of a node whose children are searched in parallel, and the best of their
+     * values so far. Brothers read the window before they start and report their value when
+     * done; stopped is set once a value cuts the node off.
+     */
+    private static class SplitPoint {
+        private final SplitPoint parent;
+        private final boolean isMaxNode;
+        private double alpha;
+        private double beta;
+        private double value;
+        private long bestChild;
+        private volatile boolean stopped = false;
+
+        SplitPoint(SplitPoint parent, boolean isMaxNode, double alpha, double beta, double value, long bestChild) {
+            this.parent = parent;
+            this.isMaxNode = isMaxNode;
+            this.alpha = alpha;
+            this.beta = beta;
+            this.value = value;
+            this.bestChild = bestChild;
+        }
+
+        /**
+         * @return whether the value cut the node off
+         */
+        synchronized boolean update(double childValue, long childHash) {
+            if (isMaxNode ? childValue > value : childValue < value) {
+                value = childValue;
+                bestChild = childHash;
+            }
+            if (isMaxNode) {
+                alpha = Math.max(alpha, value);
+            } else {
+                beta = Math.min(beta, value);
+            }
+            if (alpha >= beta && !stopped) {
+                stopped = true;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return whether this node or one of the split points above it was cut off
+         */
+        boolean isStopped() {
+            for (SplitPoint split = this; split != null; split = split.parent) {
+                if (split.stopped) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Searches one younger brother on a copy of the board. The copy is made when the task
+     * starts, the node the brothers belong to waits for all of them before it moves on.
+     */
+    private class BrotherTask extends RecursiveAction {
+        private final SplitPoint split;
+        private final long move;
+        // index of the move among its brothers, the eldest is 0
+        private final int index;
+        private final int depth;
+        private final int ply;
+        // window the brother was searched with and the value it returned, for the root
+        private double alpha;
+        private double beta;
+        private double value;
+        private boolean finished = false;
+
+        BrotherTask(SplitPoint split, long move, int index, int depth, int ply) {
+            this.split = split;
+            this.move = move;
+            this.index = index;
+            this.depth = depth;
+            this.ply = ply;
+        }
+
+        @Override
+        protected void compute() {
+            if (split.isStopped()) return;
+            if (deadline != 0 && System.nanoTime() >= deadline || root.stopped) throw new SearchTimeoutException();
+            synchronized (split) {
+                alpha = split.alpha;
+                beta = split.beta;
+            }
+            SearchBoard copy = new SearchBoard(board);
+            copy.make(move);
+            BoardSearch search = new BoardSearch(copy, transpositionTable, moveOrdering, pool, deadline,
+                    principalVariation, split);
+            search.root = root;
+            search.statistics = statistics;
+            search.quiescenceNodes = quiescenceNodes;
+            try {
+                value = search.youngerChildValue(depth - 1, ply + 1, alpha, beta, split.isMaxNode);
+            } catch (SearchAbortedException e) {
+                return;
+            }
+            finished = true;
+            if (split.update(value, copy.getZobristHash())) {
+                if (moveOrdering != null) moveOrdering.cutoff(board, move, ply, depth);
+                if (statistics != null) statistics.forThread().cutoff(index);
+            }
+        }
+    }
+
+    /**
+     * Searches every move of the root and picks the one a search on a single thread would pick:
+     * the first move in the given order with the best value. Brothers searched in parallel may
+     * have seen a narrower window than the single thread would have, so a brother that failed
+     * low but could still beat the moves before it is searched again.
+     *
+     * @param moves joint moves of the side to move, in the order to search them
+     * @param count number of moves
+     * @param depth The remaining number of plys under the root
+     * @param alpha
+     * @param beta
+     * @return index of the best move, -1 if there are none
+     */
+    public int bestMove(long[] moves, int count, int depth, double alpha, double beta) {
+        if (count == 0) return -1;
+        if (pool == null) return searchMoves(moves, count, depth, alpha, beta, null);
+        return pool.invoke(ForkJoinTask.adapt(() -> {
+            boolean isMaxNode = board.getIsFootmanTurn();
+            SplitPoint split = new SplitPoint(null, isMaxNode, alpha, beta,
+                    isMaxNode ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY, 0);
+            // the eldest brother is searched with the window a single thread would use
+            BrotherTask eldest = new BrotherTask(split, moves[0], 0, depth, 0);
+            eldest.alpha = alpha;
+            eldest.beta = beta;
+            eldest.value = childValue(moves[0], depth, alpha, beta, false);
+            eldest.finished = true;
+            split.update(eldest.value, 0);
+            List<BrotherTask> brothers = new ArrayList<>(count);
+            brothers.add(eldest);
+            if (!split.stopped) {
+                for (int i = 1; i < count; i++) {
+                    brothers.add(new BrotherTask(split, moves[i], i, depth, 0));
+                }
+                runAll(brothers.subList(1, count));
+            }
+            return searchMoves(moves, count, depth, alpha, beta, brothers);
+        }));
+    }
+
+    /**
+     * The root search of a single thread. With the brothers searched in parallel it searches
+     * again only the moves whose parallel value doesn't decide how the move compares.
+     *
+     * @param brothers the parallel search of each move, null to search them all here
+     */
+    private int searchMoves(long[] moves, int count, int depth, double alpha, double beta, List<BrotherTask> brothers) {
+        boolean isMaxNode = board.getIsFootmanTurn();
+        double bestValue = isMaxNode ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        int best = -1;
+        for (int i = 0; i < count; i++) {
+            double value;
+            BrotherTask brother = brothers == null || i >= brothers.size() ? null : brothers.get(i);
+            // either exact, beyond the window, or no better than the moves before it
+            if (brother != null && brother.finished && (isMaxNode
+                    ? brother.value > brother.alpha || brother.value <= alpha
+                    : brother.value < brother.beta || brother.value >= beta)) {
+                value = brother.value;
+            } else {
+                value = childValue(moves[i], depth, alpha, beta, i > 0);
+            }
+            if (best < 0 || isMaxNode && value > bestValue || !isMaxNode && value < bestValue) {
+                bestValue = value;
+                best = i;
+            }
+            if (isMaxNode) {
+                alpha = Math.max(alpha, value);
+            } else {
+                beta = Math.min(beta, value);
+            }
+            if (alpha >= beta) break;
+        }
+        this.bestValue = bestValue;
+        return best;
+    }
+
+    /**
+     * @return the value of the move the last bestMove picked, a bound if it was outside the window
+     */
+    public double getValue() {
+        return bestValue;
+    }
+
+    private double childValue(long move, int depth, double alpha, double beta, boolean younger) {
+        boolean isMaxNode = board.getIsFootmanTurn();
+        board.make(move);
+        try {
+            return younger ? youngerChildValue(depth - 1, 1, alpha, beta, isMaxNode) : value(depth - 1, 1, alpha, beta);
+        } finally {
+            board.unmake(move);
+        }
+    }
+
+    /**
+     * value of the position on the board, a child of a node whose eldest child was searched
+     * already. With principal variation search it is searched with a null window first, and
+     * with the whole window again only if it is better than the node's best so far.
+     *
+     * @param isMaxParent whether the node the position is a child of is a max node
+     */
+    private double youngerChildValue(int depth, int ply, double alpha, double beta, boolean isMaxParent) {
+        if (!principalVariation) return value(depth, ply, alpha, beta);
+        if (isMaxParent) {
+            double value = value(depth, ply, alpha, Math.nextUp(alpha));
+            return value > alpha && value < beta ? value(depth, ply, alpha, beta) : value;
+        }
+        double value = value(depth, ply, Math.nextDown(beta), beta);
+        return value < beta && value > alpha ? value(depth, ply, alpha, beta) : value;
+    }
+
+    /**
+     * MinimaxAlphaBeta.alphaBetaValue for the position on the board, which is left as it was found
+     *
+     * @param depth The remaining number of plys under this position
+     * @param ply Number of moves made on the board since the root, picks the move buffer
+     * @param alpha The current best value for the maximizing node from this node to the root
+     * @param beta  The current best value for the minimizing node from this node to the root
+     * @return The value of the position
+     */
+    public double value(int depth, int ply, double alpha, double beta) {
+        if ((++nodesVisited & 15) == 0) {
+            if (deadline != 0 && System.nanoTime() >= deadline || root.stopped) throw new SearchTimeoutException();
+            if (splitPoint != null && splitPoint.isStopped()) throw SEARCH_ABORTED;
+        }
+        SearchStatistics.Counters counters = statistics == null ? null : statistics.forThread();
+        if (counters != null) counters.node();
+        if (board.isGameOver()) return evaluate(counters);
+        if (depth == 0) {
+            if (quiescenceNodes == 0) return evaluate(counters);
+            quiescenceNodesLeft = quiescenceNodes;
+            return quiescenceValue(ply, alpha, beta, counters);
+        }
+
+        double alphaOriginal = alpha;
+        double betaOriginal = beta;
+        long hash = board.getZobristHash();
+        boolean found = transpositionTable != null && transpositionTable.probe(hash, entry);
+        if (counters != null && transpositionTable != null) counters.probe(found);
+        if (found && entry.depth >= depth) {
+            if (entry.bound == TranspositionTable.EXACT) return entry.value;
+            if (entry.bound == TranspositionTable.LOWER_BOUND) {
+                alpha = Math.max(alpha, entry.value);
+            } else {
+                beta = Math.min(beta, entry.value);
+            }
+            if (alpha >= beta) return entry.value;
+        }
+
+        long startTime = counters == null ? 0 : System.nanoTime();
+        int count = board.generateMoves(ply);
+        if (counters != null) {
+            long generatedTime = System.nanoTime();
+            counters.expansion(depth, count, generatedTime - startTime);
+            startTime = generatedTime;
+        }
+        if (count == 0) return evaluate(counters);
+        long[] moves = board.getMoves(ply);
+        if (moveOrdering != null) moveOrdering.sort(board, moves, count, ply);
+        if (found) moveToFront(moves, count, entry.bestChild);
+        if (counters != null) counters.ordering(System.nanoTime() - startTime);
+
+        boolean isMaxNode = board.getIsFootmanTurn();
+        double value = isMaxNode ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        long bestChild = 0;
+        for (int i = 0; i < count; i++) {
+            // the eldest brother didn't cut off, search the others in parallel
+            if (i == 1 && pool != null && depth >= MIN_SPLIT_DEPTH) {
+                SplitPoint split = new SplitPoint(splitPoint, isMaxNode, alpha, beta, value, bestChild);
+                List<BrotherTask> brothers = new ArrayList<>(count - 1);
+                for (int j = 1; j < count; j++) {
+                    brothers.add(new BrotherTask(split, moves[j], j, depth, ply));
+                }
+                runAll(brothers);
+                // a node above was cut off while the brothers ran, their values are incomplete
+                if (splitPoint != null && splitPoint.isStopped()) throw SEARCH_ABORTED;
+                value = split.value;
+                bestChild = split.bestChild;
+                break;
+            }
+            board.make(moves[i]);
+            double childValue;
+            long childHash = board.getZobristHash();
+            try {
+                childValue = i == 0 ? value(depth - 1, ply + 1, alpha, beta)
+                        : youngerChildValue(depth - 1, ply + 1, alpha, beta, isMaxNode);
+            } finally {
+                board.unmake(moves[i]);
+            }
+            if (isMaxNode ? childValue > value : childValue < value) {
+                value = childValue;
+                bestChild = childHash;
+            }
+            if (isMaxNode) {
+                alpha = Math.max(alpha, value);
+            } else {
+                beta = Math.min(beta, value);
+            }
+            // the node above will never allow this
+            if (alpha >= beta) {
+                if (moveOrdering != null) moveOrdering.cutoff(board, moves[i], ply, depth);
+                if (counters != null) counters.cutoff(i);
+                break;
+            }
+        }
+
+        if (transpositionTable != null) {
+            byte bound = value <= alphaOriginal ? TranspositionTable.UPPER_BOUND
+                    : value >= betaOriginal ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+            transpositionTable.store(hash, depth, value, bound, bestChild);
+        }
+        return value;
+    }
+
+    /**
+     * Value of a position at or below the horizon, searching only attacks. The side to move
+     * doesn't have to attack, so the evaluation is a bound on the value: the least a max node is
+     * worth and the most a min node is. Once quiescenceNodesLeft runs out the positions left are
+     * evaluated as they are.
+     *
+     * @param ply Number of moves made on the board since the root, picks the move buffer
+     * @param alpha
+     * @param beta
+     * @param counters null if the search isn't counting
+     * @return The value of the position
+     */
+    private double quiescenceValue(int ply, double alpha, double beta, SearchStatistics.Counters counters) {
+        double value = evaluate(counters);
+        if (board.isGameOver() || quiescenceNodesLeft <= 0) return value;
+        boolean isMaxNode = board.getIsFootmanTurn();
+        if (isMaxNode) {
+            alpha = Math.max(alpha, value);
+        } else {
+            beta = Math.min(beta, value);
+        }
+        if (alpha >= beta) return value;
+
+        int count = board.generateAttacks(ply);
+        long[] moves = board.getMoves(ply);
+        if (count > 1 && moveOrdering != null) moveOrdering.sort(board, moves, count, ply);
+        for (int i = 0; i < count && quiescenceNodesLeft > 0; i++) {
+            quiescenceNodesLeft--;
+            if (counters != null) counters.node();
+            board.make(moves[i]);
+            double childValue;
+            try {
+                childValue = quiescenceValue(ply + 1, alpha, beta, counters);
+            } finally {
+                board.unmake(moves[i]);
+            }
+            if (isMaxNode ? childValue > value : childValue < value) value = childValue;
+            if (isMaxNode) {
+                alpha = Math.max(alpha, value);
+            } else {
+                beta = Math.min(beta, value);
+            }
+            if (alpha >= beta) break;
+        }
+        return value;
+    }
+
+    /**
+     * getUtility of the board, timed if the search is counting
+     */
+    private double evaluate(SearchStatistics.Counters counters) {
+        if (counters == null) return board.getUtility();
+        long startTime = System.nanoTime();
+        double utility = board.getUtility();
+        counters.evaluation(System.nanoTime() - startTime);
+        return utility;
+    }
+
+    /**
+     * Runs the brothers on the pool and waits for every one of them, even after one failed, since
+     * they copy this search's board when they start.
+     */
+    private static void runAll(List<BrotherTask> brothers) {
+        // forked last is taken back first by this thread
+        for (int i = brothers.size() - 1; i > 0; i--) {
+            brothers.get(i).fork();
+        }
+        RuntimeException failure = null;
+        for (int i = 0; i < brothers.size(); i++) {
+            try {
+                if (i == 0) {
+                    brothers.get(i).invoke();
+                } else {
+                    brothers.get(i).join();
+                }
+            } catch (RuntimeException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * moves the joint move that leads to the position with the given hash to the front, if there is one
+     * @param moves
+     * @param count
+     * @param childHash
+     */
+    private void moveToFront(long[] moves, int count, long childHash) {
+        for (int i = 0; i < count; i++) {
+            board.make(moves[i]);
+            long hash = board.getZobristHash();
+            board.unmake(moves[i]);
+            if (hash == childHash) {
+                long move = moves[i];
+                System.arraycopy(moves, 0, moves, 1, i);
+                moves[0] = move;
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.util.Direction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A GameState packed into as little memory as possible, for searching without a SearchBoard.
+ *
+ * Each living unit is one long holding its id, position, HP and basic attack, footmen first and
+ * archers after them in the order of GameState's lists. The trees are a ResourceBitmap and the
+ * walking distances a DistanceField, both shared by every state of the search, so a state is
+ * little more than its array of units: about 100 bytes for 2 footmen and 2 archers, where a
+ * GameState needs two ArrayLists of MyUnitView objects.
+ *
+ * getChildren lists the children in the same order as GameState.getChildren, and getUtility and
+ * getZobristHash give the same values, so both searches see the same tree and share
+ * transposition table entries.
+ */
+public class CompactGameState {
+    private static final List<Direction> DIRECTIONS = GameState.getMovableDirections();
+
+    // bits of each field of a packed unit, lowest first
+    private static final int HP_BITS = 16;
+    private static final int Y_BITS = 12;
+    private static final int X_BITS = 12;
+    private static final int ATTACK_BITS = 8;
+    private static final int ID_BITS = 16;
+    private static final int Y_SHIFT = HP_BITS;
+    private static final int X_SHIFT = Y_SHIFT + Y_BITS;
+    private static final int ATTACK_SHIFT = X_SHIFT + X_BITS;
+    private static final int ID_SHIFT = ATTACK_SHIFT + ATTACK_BITS;
+
+    /**
+     * a joint action of the side to move and the state it leads to, like GameStateChild
+     */
+    public static class Child {
+        public final Map<Integer, Action> action;
+        public final CompactGameState state;
+
+        public Child(Map<Integer, Action> action, CompactGameState state) {
+            this.action = action;
+            this.state = state;
+        }
+    }
+
+    private final ResourceBitmap resources;
+    private final DistanceField distanceField;
+    private final int archerRange;
+    private final long[] units;
+    private final int footmanCount;
+    // only changed while getChildren builds the state
+    private boolean footmanTurn;
+    private long zobristHash;
+
+    /**
+     * constructor for CompactGameState
+     * @param state the state to pack, its ids, coordinates, HP and attacks must fit their fields
+     */
+    public CompactGameState(GameState state) {
+        resources = new ResourceBitmap(state);
+        distanceField = state.getDistanceField();
+        archerRange = state.getArcherUnitViews().isEmpty() ? 0 : state.getArcherRange();
+        List<GameState.MyUnitView> footmen = state.getFootmanUnitViews();
+        List<GameState.MyUnitView> archers = state.getArcherUnitViews();
+        footmanCount = footmen.size();
+        units = new long[footmen.size() + archers.size()];
+        for (int i = 0; i < units.length; i++) {
+            GameState.MyUnitView unit = i < footmanCount ? footmen.get(i) : archers.get(i - footmanCount);
+            units[i] = pack(unit.getID(), unit.getXPosition(), unit.getYPosition(), unit.getHP(), unit.getBasicAttack());
+        }
+        footmanTurn = state.getIsFootmanTurn();
+        zobristHash = state.getZobristHash();
+    }
+
+    private CompactGameState(CompactGameState parent, long[] units, int footmanCount, long zobristHash) {
+        this.resources = parent.resources;
+        this.distanceField = parent.distanceField;
+        this.archerRange = parent.archerRange;
+        this.units = units;
+        this.footmanCount = footmanCount;
+        this.footmanTurn = parent.footmanTurn;
+        this.zobristHash = zobristHash;
+    }
+
+    /**
+     * packs a unit into a long
+     * @throws IllegalArgumentException if a value doesn't fit its field
+     */
+    static long pack(int id, int x, int y, int hp, int basicAttack) {
+        if (id >>> ID_BITS != 0 || x >>> X_BITS != 0 || y >>> Y_BITS != 0 || hp >>> HP_BITS != 0
+                || basicAttack >>> ATTACK_BITS != 0) {
+            throw new IllegalArgumentException("Unit " + id + " doesn't fit in a long");
+        }
+        return (long) id << ID_SHIFT | (long) basicAttack << ATTACK_SHIFT | (long) x << X_SHIFT
+                | (long) y << Y_SHIFT | hp;
+    }
+
+    static int unitID(long unit) {
+        return (int) (unit >>> ID_SHIFT);
+    }
+
+    static int basicAttack(long unit) {
+        return (int) (unit >>> ATTACK_SHIFT) & ((1 << ATTACK_BITS) - 1);
+    }
+
+    static int xPosition(long unit) {
+        return (int) (unit >>> X_SHIFT) & ((1 << X_BITS) - 1);
+    }
+
+    static int yPosition(long unit) {
+        return (int) (unit >>> Y_SHIFT) & ((1 << Y_BITS) - 1);
+    }
+
+    static int hp(long unit) {
+        return (int) unit & ((1 << HP_BITS) - 1);
+    }
+
+    private static long zobristKey(long unit) {
+        return GameState.zobristKey(unitID(unit), xPosition(unit), yPosition(unit), hp(unit));
+    }
+
+    public boolean getIsFootmanTurn() {
+        return footmanTurn;
+    }
+
+    public long getZobristHash() {
+        return zobristHash;
+    }
+
+    public int getFootmanCount() {
+        return footmanCount;
+    }
+
+    public int getArcherCount() {
+        return units.length - footmanCount;
+    }
+
+    /**
+     * @return whether one side has no units left
+     */
+    public boolean isGameOver() {
+        return footmanCount == 0 || footmanCount == units.length;
+    }
+
+    /**
+     * same value as GameState.getUtility
+     */
+    public double getUtility() {
+        int totalFootmanHP = 0;
+        int totalArcherHP = 0;
+        int sumDistFromFootToClosestArch = 0;
+        for (int i = footmanCount; i < units.length; i++) {
+            totalArcherHP += hp(units[i]);
+        }
+        for (int i = 0; i < footmanCount; i++) {
+            totalFootmanHP += hp(units[i]);
+            if (footmanCount == units.length) continue;
+            sumDistFromFootToClosestArch += Math.min(GameState.MAX_COUNTED_DISTANCE, nearestArcherDistance(i));
+        }
+        return totalFootmanHP - totalArcherHP - GameState.DISTANCE_WEIGHT * sumDistFromFootToClosestArch;
+    }
+
+    /**
+     * @return the walking distance from the footman to its nearest archer, Integer.MAX_VALUE if
+     * there are no archers
+     */
+    public int nearestArcherDistance(int footman) {
+        int distance = Integer.MAX_VALUE;
+        int x = xPosition(units[footman]);
+        int y = yPosition(units[footman]);
+        for (int i = footmanCount; i < units.length; i++) {
+            distance = Math.min(distance, distanceField.distance(x, y, xPosition(units[i]), yPosition(units[i])));
+        }
+        return distance;
+    }
+
+    /**
+     * Every joint action of the side to move and the state it leads to. Like GameState.getChildren
+     * each unit in turn is added to every partial joint action so far, first with all of its
+     * moves and then all of its attacks.
+     *
+     * @return the children, in the order of GameState.getChildren
+     */
+    public List<Child> getChildren() {
+        List<Child> children = new ArrayList<>();
+        children.add(new Child(new HashMap<>(), new CompactGameState(this, units, footmanCount, zobristHash)));
+        int first = footmanTurn ? 0 : footmanCount;
+        int end = footmanTurn ? footmanCount : units.length;
+        for (int i = first; i < end; i++) {
+            int id = unitID(units[i]);
+            List<Child> next = new ArrayList<>();
+            for (Child partial : children) {
+                addMoves(partial, id, next);
+            }
+            for (Child partial : children) {
+                addAttacks(partial, id, next);
+            }
+            children = next;
+        }
+        for (Child child : children) {
+            child.state.footmanTurn = !footmanTurn;
+            child.state.zobristHash ^= GameState.SIDE_TO_MOVE_KEY;
+        }
+        return children;
+    }
+
+    private void addMoves(Child partial, int id, List<Child> next) {
+        CompactGameState state = partial.state;
+        int index = state.indexOf(id);
+        long unit = state.units[index];
+        for (Direction direction : DIRECTIONS) {
+            int x = xPosition(unit) + direction.xComponent();
+            int y = yPosition(unit) + direction.yComponent();
+            if (!resources.inBounds(x, y) || resources.isResourceAt(x, y) || state.unitAt(x, y, 0) >= 0) continue;
+            long moved = pack(id, x, y, hp(unit), basicAttack(unit));
+            long[] units = state.units.clone();
+            units[index] = moved;
+            Map<Integer, Action> action = new HashMap<>(partial.action);
+            action.put(id, Action.createPrimitiveMove(id, direction));
+            next.add(new Child(action, new CompactGameState(state, units, state.footmanCount,
+                    state.zobristHash ^ zobristKey(unit) ^ zobristKey(moved))));
+        }
+    }
+
+    private void addAttacks(Child partial, int id, List<Child> next) {
+        CompactGameState state = partial.state;
+        long unit = state.units[state.indexOf(id)];
+        int x = xPosition(unit);
+        int y = yPosition(unit);
+        if (footmanTurn) {
+            for (Direction direction : DIRECTIONS) {
+                int target = state.unitAt(x + direction.xComponent(), y + direction.yComponent(), state.footmanCount);
+                if (target >= 0) next.add(attack(partial, id, target, basicAttack(unit)));
+            }
+        } else {
+            for (int target = 0; target < state.footmanCount; target++) {
+                int dx = xPosition(state.units[target]) - x;
+                int dy = yPosition(state.units[target]) - y;
+                if (dx * dx + dy * dy > archerRange * archerRange) continue;
+                next.add(attack(partial, id, target, basicAttack(unit)));
+            }
+        }
+    }
+
+    /**
+     * the partial joint action with the unit attacking the target, which is removed if it dies
+     */
+    private Child attack(Child partial, int id, int target, int basicAttack) {
+        CompactGameState state = partial.state;
+        long unit = state.units[target];
+        int hp = hp(unit) - basicAttack;
+        Map<Integer, Action> action = new HashMap<>(partial.action);
+        action.put(id, Action.createPrimitiveAttack(id, unitID(unit)));
+        long[] units;
+        int footmanCount = state.footmanCount;
+        long zobristHash = state.zobristHash ^ zobristKey(unit);
+        if (hp > 0) {
+            units = state.units.clone();
+            units[target] = pack(unitID(unit), xPosition(unit), yPosition(unit), hp, basicAttack(unit));
+            zobristHash ^= zobristKey(units[target]);
+        } else {
+            units = new long[state.units.length - 1];
+            System.arraycopy(state.units, 0, units, 0, target);
+            System.arraycopy(state.units, target + 1, units, target, units.length - target);
+            if (target < footmanCount) footmanCount--;
+        }
+        return new Child(action, new CompactGameState(state, units, footmanCount, zobristHash));
+    }
+
+    private int indexOf(int id) {
+        for (int i = 0; i < units.length; i++) {
+            if (unitID(units[i]) == id) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return index of the unit at the cell among units from the given index on, -1 if none
+     */
+    private int unitAt(int x, int y, int from) {
+        for (int i = from; i < units.length; i++) {
+            if (xPosition(units[i]) == x && yPosition(units[i]) == y) return i;
+        }
+        return -1;
+    }
+}
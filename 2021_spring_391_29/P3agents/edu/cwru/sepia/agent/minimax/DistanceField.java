@@ -0,0 +1,117 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.environment.model.state.State.StateView;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Walking distances between cells of a map, going around the trees, for the utility's
+ * footman to archer distances and for move ordering.
+ *
+ * A breadth first search from a cell gives the distance from every other cell to it, kept as a
+ * short per cell. On maps of up to MAX_PRECOMPUTED_CELLS cells precompute searches from every
+ * cell at once, before the first turn's search, so every lookup after that is an array read.
+ * On larger maps each cell's search is done the first time a distance to it is asked for.
+ * Units are not obstacles, they move.
+ */
+public class DistanceField {
+    // distance to a cell no path leads to, larger than any real distance
+    public static final int UNREACHABLE = Short.MAX_VALUE;
+
+    // largest map whose distances between all cells are kept, 2 bytes * cells^2 = 8 MB
+    public static final int MAX_PRECOMPUTED_CELLS = 2048;
+
+    // the field of the last map, which stays the same from one turn to the next
+    private static DistanceField lastField;
+
+    private final int xExtent;
+    private final int yExtent;
+    private final boolean[] blocked;
+    // distances to each cell, null until asked for
+    private final AtomicReferenceArray<short[]> fields;
+
+    /**
+     * constructor for DistanceField
+     * @param xExtent
+     * @param yExtent
+     * @param blocked whether each cell, y * xExtent + x, holds a tree
+     */
+    public DistanceField(int xExtent, int yExtent, boolean[] blocked) {
+        this.xExtent = xExtent;
+        this.yExtent = yExtent;
+        this.blocked = blocked;
+        this.fields = new AtomicReferenceArray<>(xExtent * yExtent);
+    }
+
+    /**
+     * @return the field of the state's map, the same one as last time if the trees didn't change
+     */
+    public static synchronized DistanceField forState(StateView state) {
+        int xExtent = state.getXExtent();
+        int yExtent = state.getYExtent();
+        boolean[] blocked = new boolean[xExtent * yExtent];
+        for (int id : state.getAllResourceIds()) {
+            blocked[state.getResourceNode(id).getYPosition() * xExtent + state.getResourceNode(id).getXPosition()] = true;
+        }
+        if (lastField == null || lastField.xExtent != xExtent || !Arrays.equals(lastField.blocked, blocked)) {
+            lastField = new DistanceField(xExtent, yExtent, blocked);
+        }
+        return lastField;
+    }
+
+    /**
+     * searches from every free cell now, if the map is small enough
+     */
+    public void precompute() {
+        if (fields.length() > MAX_PRECOMPUTED_CELLS) return;
+        for (int cell = 0; cell < fields.length(); cell++) {
+            if (!blocked[cell] && fields.get(cell) == null) fields.set(cell, search(cell));
+        }
+    }
+
+    /**
+     * @return the number of steps from one cell to the other, UNREACHABLE if there is no path
+     */
+    public int distance(int fromX, int fromY, int toX, int toY) {
+        int target = toY * xExtent + toX;
+        short[] field = fields.get(target);
+        if (field == null) {
+            // two threads may both search, either result is the same
+            field = search(target);
+            fields.set(target, field);
+        }
+        return field[fromY * xExtent + fromX];
+    }
+
+    /**
+     * breadth first search out from the target in the four directions units move in
+     */
+    private short[] search(int target) {
+        short[] field = new short[xExtent * yExtent];
+        Arrays.fill(field, (short) UNREACHABLE);
+        int[] queue = new int[field.length];
+        int head = 0;
+        int tail = 0;
+        field[target] = 0;
+        queue[tail++] = target;
+        while (head < tail) {
+            int cell = queue[head++];
+            int x = cell % xExtent;
+            int y = cell / xExtent;
+            short next = (short) (field[cell] + 1);
+            if (x > 0) tail = visit(field, queue, tail, cell - 1, next);
+            if (x < xExtent - 1) tail = visit(field, queue, tail, cell + 1, next);
+            if (y > 0) tail = visit(field, queue, tail, cell - xExtent, next);
+            if (y < yExtent - 1) tail = visit(field, queue, tail, cell + xExtent, next);
+        }
+        return field;
+    }
+
+    private int visit(short[] field, int[] queue, int tail, int cell, short distance) {
+        if (blocked[cell] || field[cell] != UNREACHABLE) return tail;
+        field[cell] = distance;
+        queue[tail] = cell;
+        return tail + 1;
+    }
+}
@@ -49,6 +49,7 @@ public class GameState {
             return x;
         }
         public MyUnitView setXPosition(int x){
+            zobristHash ^= zobristKey(id, this.x, y, hp) ^ zobristKey(id, x, y, hp);
             this.x = x;
             return this;
         }
@@ -56,10 +57,12 @@ public class GameState {
             return y;
         }
         public MyUnitView setYPosition(int y){
+            zobristHash ^= zobristKey(id, x, this.y, hp) ^ zobristKey(id, x, y, hp);
             this.y = y;
             return this;
         }
         public MyUnitView setHP(int hp){
+            zobristHash ^= zobristKey(id, x, y, this.hp) ^ zobristKey(id, x, y, hp);
             this.hp = hp;
             return this;
         }
@@ -96,6 +99,34 @@ public class GameState {
     private StateView state;
     //Tracks Footman Turn
     private boolean isFootmanTurn;
+    // xor of zobristKey over every unit, and SIDE_TO_MOVE_KEY when it is the footmen's turn.
+    // the unit setters keep it up to date, so equal states reached by different moves hash the same
+    private long zobristHash;
+    static final long SIDE_TO_MOVE_KEY = 0x5DEECE66DL * 0x9E3779B97F4A7C15L;
+    // walking distances on this map, shared by every state of the map
+    private DistanceField distanceField;
+    // utility lost per step between a footman and its nearest archer, small enough that the
+    // distances of all footmen together are worth less than one HP
+    static final double DISTANCE_WEIGHT = 0.001;
+    // farthest a footman's distance counts for, so a boxed in footman doesn't outweigh HP
+    static final int MAX_COUNTED_DISTANCE = 100;
+
+    /**
+     * Zobrist key of one unit's id, position and HP. Rather than storing a table of random
+     * numbers for every combination, the fields are packed into a long and scrambled with the
+     * splitmix64 finalizer, which gives keys just as well spread.
+     * @param id
+     * @param x
+     * @param y
+     * @param hp
+     * @return
+     */
+    static long zobristKey(int id, int x, int y, int hp) {
+        long key = ((long) id << 40) ^ ((long) x << 28) ^ ((long) y << 16) ^ hp;
+        key = (key ^ (key >>> 30)) * 0xBF58476D1CE4E5B9L;
+        key = (key ^ (key >>> 27)) * 0x94D049BB133111EBL;
+        return key ^ (key >>> 31);
+    }
     // used for hashing
     private int cantorPairingFunction(int x, int y){
         return (x + y) * (x + y + 1) / 2 + y;
@@ -153,6 +184,14 @@ public class GameState {
             resources.put(cantorPairingFunction(state.getResourceNode(id).getXPosition(),
                     state.getResourceNode(id).getYPosition()), state.getResourceNode(id));
         }
+        distanceField = DistanceField.forState(state);
+        zobristHash = SIDE_TO_MOVE_KEY;
+        for (MyUnitView unit : footmanUnitViews) {
+            zobristHash ^= zobristKey(unit.getID(), unit.getXPosition(), unit.getYPosition(), unit.getHP());
+        }
+        for (MyUnitView unit : archerUnitViews) {
+            zobristHash ^= zobristKey(unit.getID(), unit.getXPosition(), unit.getYPosition(), unit.getHP());
+        }
     }
 
     /**
@@ -176,8 +215,17 @@ public class GameState {
         this.archerUnitViews = newArcherUnitViews;
         this.resources = gameState.resources;
         this.state = gameState.state;
+        this.isFootmanTurn = gameState.isFootmanTurn;
+        this.zobristHash = gameState.zobristHash;
+        this.distanceField = gameState.distanceField;
     }
 
+    //Helper method to get the map width
+    int getXExtent(){ return state.getXExtent(); }
+    //Helper method to get the map height
+    int getYExtent(){ return state.getYExtent(); }
+    //Helper method to get the walking distances of the map
+    DistanceField getDistanceField(){ return distanceField; }
     //Helper method to get the Archer Range
     public int getArcherRange(){ return state.getUnit(state.getUnitIds(1).get(0)).getTemplateView().getRange(); }
     //Helper method to get Footman views
@@ -194,8 +242,13 @@ public class GameState {
     }
     //Helper method to set the Footman Turn
     public void setIsFootmanTurn(boolean isFootmanTurn){
+        if (this.isFootmanTurn != isFootmanTurn) zobristHash ^= SIDE_TO_MOVE_KEY;
         this.isFootmanTurn = isFootmanTurn;
     }
+    //Helper method to get the hash used by the transposition table
+    public long getZobristHash(){
+        return zobristHash;
+    }
     //Helper method to get all the possible directions
     public static List<Direction> getMovableDirections() {
         List<Direction> directions = new ArrayList<>();
@@ -221,22 +274,36 @@ public class GameState {
      *
      * Add a good comment about what is in your utility and why you chose those features.
      *
+     * The utility is the footmen's HP minus the archers' HP, less a little for every step
+     * between each footman and its nearest archer. HP decides the game, but with only HP the
+     * footmen see no reason to walk towards archers out of reach of the search, so the distance
+     * breaks ties between states with the same HP. Distances are walking distances around the
+     * trees, and SearchBoard keeps the same utility up to date as moves are made.
+     *
      * @return The weighted linear combination of the features
      */
     public double getUtility() {
         int totalArcherHP = 0;
         int totalFootmanHP = 0;
+        int sumDistFromFootToClosestArch = 0;
 
         //Loop to get the HP for all the archer
         for (MyUnitView archUV : archerUnitViews){
             totalArcherHP += archUV.getHP();
         }
-        //Loop to get the HP for all the footmen
+        //Loop to get the HP for all the footmen and their distance to the closest archer
         for (MyUnitView footUV : footmanUnitViews){
             totalFootmanHP += footUV.getHP();
+            if (archerUnitViews.isEmpty()) continue;
+            int distFromFootToClosestArch = MAX_COUNTED_DISTANCE;
+            for (MyUnitView archUV : archerUnitViews) {
+                distFromFootToClosestArch = Math.min(distFromFootToClosestArch, distanceField.distance(
+                        footUV.getXPosition(), footUV.getYPosition(), archUV.getXPosition(), archUV.getYPosition()));
+            }
+            sumDistFromFootToClosestArch += distFromFootToClosestArch;
         }
 
-        return totalFootmanHP - totalArcherHP;
+        return totalFootmanHP - totalArcherHP - DISTANCE_WEIGHT * sumDistFromFootToClosestArch;
         /*
         int distBetweenArch = 1;//start at a
         int sumDistFromFootToClosestArch = 0;
@@ -337,7 +404,7 @@ public class GameState {
      * @param y
      * @return
      */
-    private boolean isResourceAt(int x, int y) {
+    boolean isResourceAt(int x, int y) {
         return resources.get(cantorPairingFunction(x, y)) != null;
     }
 
@@ -389,6 +456,8 @@ public class GameState {
      * @return
      */
     private GameState removeUnit(int id) {
+        MyUnitView unit = getMyUnitViewByID(id);
+        zobristHash ^= zobristKey(id, unit.getXPosition(), unit.getYPosition(), unit.getHP());
         boolean isFootman = isFootmanAt(getMyUnitViewByID(id).getXPosition(), getMyUnitViewByID(id).getYPosition());
         if (isFootman)
             getFootmanUnitViews().remove(getMyUnitViewByID(id));
@@ -590,4 +659,39 @@ public class GameState {
         }
         return childStates;
     }
-}
\ No newline at end of file
+
+    /**
+     * The children in which every unit of the side to move that can attack does, and the others
+     * stay where they are, for quiescence search. Like getChildren each unit in turn is added to
+     * every partial joint action so far.
+     *
+     * @return The children, empty if no unit of the side to move can attack
+     */
+    public List<GameStateChild> getAttackChildren() {
+        List<GameStateChild> childStates = new ArrayList<>();
+        childStates.add(new GameStateChild(new HashMap<>(), this));
+        boolean anyAttack = false;
+        for (MyUnitView uv : isFootmanTurn ? footmanUnitViews : archerUnitViews) {
+            List<GameStateChild> temp = new ArrayList<>();
+            for (GameStateChild partial : childStates) {
+                List<GameStateChild> single = Collections.singletonList(partial);
+                List<GameStateChild> attacks = isFootmanTurn ? pollinateFootmanAttackStates(uv, single)
+                        : pollinateArcherAttackStates(uv, single);
+                if (attacks.isEmpty()) {
+                    // nothing in range, the unit stays where it is
+                    temp.add(partial);
+                } else {
+                    anyAttack = true;
+                    temp.addAll(attacks);
+                }
+            }
+            childStates = temp;
+        }
+        // no unit attacked, childStates is just this state
+        if (!anyAttack) return new ArrayList<>();
+        for (GameStateChild c : childStates) {
+            c.state.setIsFootmanTurn(!isFootmanTurn);
+        }
+        return childStates;
+    }
+}
\ No newline at end of file
@@ -1,20 +1,103 @@
 package edu.cwru.sepia.agent.minimax;
 import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.action.ActionType;
 import edu.cwru.sepia.agent.Agent;
 import edu.cwru.sepia.environment.model.history.History;
 import edu.cwru.sepia.environment.model.state.State;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 public class MinimaxAlphaBeta extends Agent {
     //Represent number of players
     private final int numberOfPlayers;
+    // milliseconds each turn may search for, 0 searches straight to numberOfPlayers plys
+    private long timeBudget = 0;
+    // System.nanoTime after which the current search gives up, 0 if it may run to the end
+    private long deadline = 0;
+    // nodes visited in the current search, the clock is only read every few nodes
+    private long nodesVisited = 0;
+    // results of earlier searches, kept across turns, null if turned off with tableSize=0
+    private TranspositionTable transpositionTable;
+    // search on one SearchBoard with make and unmake instead of building a GameState per child
+    private boolean makeUnmake = true;
+    // board of the current search, null when it searches GameStates
+    private SearchBoard searchBoard;
+    // joint move on searchBoard that leads to each root child
+    private final Map<GameStateChild, Long> rootMoves = new IdentityHashMap<>();
+    // search below the root on CompactGameStates when not on a SearchBoard
+    private boolean compactState = false;
+    // CompactGameState of each root child, empty when searching GameStates
+    private final Map<GameStateChild, CompactGameState> rootCompactStates = new IdentityHashMap<>();
+    // search every child but the eldest with a null window first, on SearchBoards
+    private boolean principalVariation = false;
+    // half the width of the window around the last iteration's value that iterative deepening
+    // searches with first, 0 to always search with the whole window
+    private double aspirationWindow = 0;
+    // value of the best child the last searchRoot found, a bound if it was outside the window
+    private double rootValue;
+    // most quiescence nodes searched below each state at the horizon, 0 to evaluate it as it is
+    private int quiescenceNodes = 0;
+    // quiescence nodes left for the current state at the horizon
+    private int quiescenceNodesLeft;
+    // counts what each turn's search does and writes it to a CSV file, null if turned off
+    private SearchStatistics statistics;
+    // plys the last turn's search finished
+    private int searchedDepth;
+    // searches between turns from the archers' expected reply, null if turned off
+    private Ponderer ponderer;
+    // search one unit's action per ply on a factored SearchBoard instead of one joint action per ply
+    private boolean factored = false;
+    // threads that search below the root on searchBoard copies, null to search on this thread only
+    private ForkJoinPool pool;
+    // killer moves and history for searches on searchBoard, null if turned off with moveOrdering=false
+    private MoveOrdering moveOrdering = new MoveOrdering();
+    // transposition table entry read by alphaBetaValue
+    private final TranspositionTable.Entry entry = new TranspositionTable.Entry();
 
     /**
      * Constructor
+     *
+     * args[0] is the number of plys to search. It can be followed by optional name=value pairs:
+     * timeBudget: milliseconds to search per turn. The search deepens one ply at a time and plays
+     * the best move of the deepest search that finished, with args[0] as the deepest it goes.
+     * tableSize: number of transposition table entries, 262144 by default, 0 turns the table off
+     * makeUnmake: true (default) searches below the root by playing and taking back moves on a
+     * single SearchBoard, false builds a new GameState for every child as getChildren does
+     * compactState: with makeUnmake=false, true builds CompactGameStates below the root instead
+     * of GameStates, false by default
+     * threads: number of threads searching on SearchBoards, 1 by default. The move played is the
+     * same as with a single thread.
+     * moveOrdering: true (default) searches attacks, killer moves and moves towards the enemy
+     * first, false searches children in the order they are generated
+     * factored: true searches one unit's action per ply rather than the joint action of a whole
+     * side, so args[0] counts unit actions. The branching factor is then the number of actions of
+     * one unit instead of their product over the side, which keeps 4 or 5 units a side
+     * searchable. Needs makeUnmake, false by default.
+     * pvs: true searches every child but the eldest with a null window first and again with the
+     * whole window only if it is better, on SearchBoards. false by default.
+     * aspiration: with timeBudget, each iteration after the first is searched with a window this
+     * far either side of the value the one before found, and again with the whole window if the
+     * value falls outside it. 0 (default) always searches with the whole window.
+     * quiescence: most nodes of quiescence search below each state at the horizon. A state
+     * where the side to move can attack is searched further with only attacks until it can't,
+     * so the search doesn't stop halfway through an exchange. 0 (default) evaluates the states
+     * at the horizon as they are. Not used with compactState.
+     * statistics: file to append a CSV row to every turn with the nodes, evaluations,
+     * transposition table hits, cutoffs by child index, branching factor by depth and time in
+     * move generation, ordering and evaluation of the turn's search. Off by default, when
+     * nothing is counted.
+     * ponder: true searches on a background thread while the archers take their turn, from the
+     * position their expected reply leads to, into the transposition table. A turn that starts
+     * from that position plays the pondered move if it was searched args[0] plys already, any
+     * other turn still finds what was searched in the table. Needs makeUnmake, false by default.
+     *
      * @param playernum
      * @param args
      */
@@ -25,29 +108,130 @@ public class MinimaxAlphaBeta extends Agent {
             System.exit(1);
         }
         numberOfPlayers = Integer.parseInt(args[0]);
+        int tableSize = 1 << 18;
+        int threads = 1;
+        boolean ponder = false;
+        for (int i = 1; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            if (option.length != 2) {
+                System.err.println("Ignoring argument " + args[i] + ", expected name=value");
+                continue;
+            }
+            switch (option[0]) {
+                case "timeBudget":
+                    timeBudget = Long.parseLong(option[1]);
+                    break;
+                case "tableSize":
+                    tableSize = Integer.parseInt(option[1]);
+                    break;
+                case "makeUnmake":
+                    makeUnmake = Boolean.parseBoolean(option[1]);
+                    break;
+                case "moveOrdering":
+                    if (!Boolean.parseBoolean(option[1])) moveOrdering = null;
+                    break;
+                case "compactState":
+                    compactState = Boolean.parseBoolean(option[1]);
+                    break;
+                case "threads":
+                    threads = Integer.parseInt(option[1]);
+                    break;
+                case "factored":
+                    factored = Boolean.parseBoolean(option[1]);
+                    break;
+                case "pvs":
+                    principalVariation = Boolean.parseBoolean(option[1]);
+                    break;
+                case "aspiration":
+                    aspirationWindow = Double.parseDouble(option[1]);
+                    break;
+                case "quiescence":
+                    quiescenceNodes = Integer.parseInt(option[1]);
+                    break;
+                case "statistics":
+                    statistics = new SearchStatistics(option[1]);
+                    break;
+                case "ponder":
+                    ponder = Boolean.parseBoolean(option[1]);
+                    break;
+                default:
+                    System.err.println("Ignoring unknown argument " + args[i]);
+            }
+        }
+        if (tableSize > 0) transpositionTable = new TranspositionTable(tableSize);
+        if (threads > 1) pool = new ForkJoinPool(threads);
+        if (ponder && makeUnmake) {
+            ponderer = new Ponderer(transpositionTable, moveOrdering, pool, principalVariation, quiescenceNodes,
+                    numberOfPlayers);
+        }
     }
 
 
     @Override
     public Map<Integer, Action> initialStep(State.StateView newstate, History.HistoryView statehistory) {
+        // the trees never move, their walking distances are worked out once for the whole game
+        DistanceField.forState(newstate).precompute();
         return middleStep(newstate, statehistory);
     }
     @Override
     public Map<Integer, Action> middleStep(State.StateView newstate, History.HistoryView statehistory) {
+        long startTime = System.nanoTime();
+        // the ponder shares the transposition table and move ordering with the turn's search
+        if (ponderer != null) ponderer.stop();
+        if (statistics != null) statistics.startTurn();
+        if (factored && makeUnmake) {
+            GameState state = new GameState(newstate);
+            if (SearchBoard.fits(state)) {
+                Map<Integer, Action> actions = factoredStep(state);
+                writeStatistics(newstate, startTime);
+                return actions;
+            }
+        }
+        if (ponderer != null) {
+            int ponderedDepth = ponderer.getCompletedDepth();
+            Map<Integer, Action> actions = ponderer.play(new GameState(newstate).getZobristHash(), numberOfPlayers);
+            if (actions != null) {
+                System.out.println("Pondered " + ponderedDepth + " plys");
+                searchedDepth = ponderedDepth;
+                writeStatistics(newstate, startTime);
+                return actions;
+            }
+        }
         GameStateChild bestChild = null;
         try {
-            bestChild = alphaBetaSearch(new GameStateChild(newstate),
-                    numberOfPlayers,
-                    Double.NEGATIVE_INFINITY,
-                    Double.POSITIVE_INFINITY);
+            if (timeBudget > 0) {
+                bestChild = iterativeDeepeningSearch(new GameStateChild(newstate));
+            } else {
+                bestChild = alphaBetaSearch(new GameStateChild(newstate),
+                        numberOfPlayers,
+                        Double.NEGATIVE_INFINITY,
+                        Double.POSITIVE_INFINITY);
+                searchedDepth = numberOfPlayers;
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
+        writeStatistics(newstate, startTime);
+        if (ponderer != null && searchBoard != null && bestChild != null) {
+            SearchBoard board = new SearchBoard(searchBoard);
+            board.make(rootMoves.get(bestChild));
+            ponderer.start(board, searchedDepth);
+        }
         System.out.println("Next Action: ");
+        if (bestChild == null) return new HashMap<>();
         bestChild.state.toString();
         System.out.println();
         return bestChild.action;
     }
+    private void writeStatistics(State.StateView newstate, long startTime) {
+        if (statistics == null) return;
+        try {
+            statistics.writeTurn(newstate.getTurnNumber(), searchedDepth, (System.nanoTime() - startTime) / 1000000);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     @Override
     public void terminalStep(State.StateView newstate, History.HistoryView statehistory) {
         System.exit(0);
@@ -74,77 +258,535 @@ public class MinimaxAlphaBeta extends Agent {
      * @return The best child of this node with updated values
      */
     public GameStateChild alphaBetaSearch(GameStateChild node, int depth, double alpha, double beta) throws IOException {
-        // follows page 8 of lecture 8 very closely
         if (depth == 0) return node;
-        // ordered list of children
-        List<GameStateChild> returnList = orderChildrenWithHeuristics(node.state.getChildren());
-        // finds best option for max or min node
-        double compareValue = node.state.getIsFootmanTurn() ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
-        double tempValue;
-        GameStateChild returnChild = null;
-        GameStateChild tempChild;
-        double childAlpha = alpha;
-        double childBeta = beta;
+        return searchRoot(node.state, rootChildren(node.state), depth, alpha, beta);
+    }
 
-        // goes through all children
-        for (GameStateChild c : returnList){
+    /**
+     * Generates the children of the root, the only GameStates the search builds when it runs on a
+     * SearchBoard, and pairs each with its joint move on a new board.
+     *
+     * @param state The root state
+     * @return The ordered children
+     * @throws IOException
+     */
+    private List<GameStateChild> rootChildren(GameState state) throws IOException {
+        List<GameStateChild> children = state.getChildren();
+        searchBoard = null;
+        rootMoves.clear();
+        if (moveOrdering != null) moveOrdering.startSearch();
+        if (makeUnmake && SearchBoard.fits(state)) {
+            SearchBoard board = new SearchBoard(state);
+            int count = board.generateMoves(0);
+            if (count == children.size()) {
+                // both list the children in the same order, so they can be paired before sorting
+                for (int i = 0; i < count; i++) {
+                    rootMoves.put(children.get(i), board.getMoves(0)[i]);
+                }
+                searchBoard = board;
+            } else {
+                System.err.println("SearchBoard found " + count + " children instead of " + children.size());
+            }
+        }
+        rootCompactStates.clear();
+        if (searchBoard == null && compactState) {
+            List<CompactGameState.Child> compactChildren = new CompactGameState(state).getChildren();
+            if (compactChildren.size() == children.size()) {
+                for (int i = 0; i < compactChildren.size(); i++) {
+                    rootCompactStates.put(children.get(i), compactChildren.get(i).state);
+                }
+            } else {
+                System.err.println("CompactGameState found " + compactChildren.size() + " children instead of " + children.size());
+            }
+        }
+        return orderChildrenWithHeuristics(children);
+    }
+
+    /**
+     * Searches one ply deeper each time until the time budget runs out or numberOfPlayers plys
+     * are done, and returns the best child of the deepest search that finished. The root
+     * children are generated once and the last best child is searched first, so every
+     * iteration starts from the best move found so far.
+     *
+     * @param node The state to search from
+     * @return The best child of this node
+     * @throws IOException
+     */
+    private GameStateChild iterativeDeepeningSearch(GameStateChild node) throws IOException {
+        long startTime = System.nanoTime();
+        List<GameStateChild> children = rootChildren(node.state);
+        GameStateChild bestChild = null;
+        int completedDepth = 0;
+        deadline = startTime + timeBudget * 1000000;
+        try {
+            for (int depth = 1; depth <= numberOfPlayers; depth++) {
+                bestChild = aspirationSearch(node.state, children, depth, completedDepth > 0);
+                completedDepth = depth;
+                children.remove(bestChild);
+                children.add(0, bestChild);
+                if (System.nanoTime() >= deadline) break;
+            }
+        } catch (SearchTimeoutException e) {
+            // keep the best child of the last search that finished
+        } finally {
+            deadline = 0;
+        }
+        // not even one ply fit in the budget, a move is still needed
+        if (bestChild == null) {
+            bestChild = searchRoot(node.state, children, 1, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+            completedDepth = 1;
+        }
+        System.out.println("Searched " + completedDepth + " plys in " + (System.nanoTime() - startTime) / 1000000 + " ms");
+        searchedDepth = completedDepth;
+        return bestChild;
+    }
 
-            // uses recursion
-            tempChild = alphaBetaSearch(c, depth - 1, childAlpha, childBeta);
-            tempValue = tempChild.state.getUtility();
+    /**
+     * Picks the joint action of a turn one unit at a time on a factored SearchBoard. Each unit's
+     * action is the best move of a search from the board with the actions of the units before it
+     * already made, as the factored tree has them. With a time budget every unit still to pick
+     * gets an equal share of what is left of it and deepens one ply at a time.
+     *
+     * @param state The state to search from
+     * @return The actions of every unit of the side to move
+     */
+    private Map<Integer, Action> factoredStep(GameState state) {
+        long startTime = System.nanoTime();
+        SearchBoard board = new SearchBoard(state, true);
+        if (moveOrdering != null) moveOrdering.startSearch();
+        Map<Integer, Action> actions = new HashMap<>();
+        boolean footmanTurn = board.getIsFootmanTurn();
+        int unitsLeft = footmanTurn ? state.getFootmanUnitViews().size() : state.getArcherUnitViews().size();
+        int completedDepth = numberOfPlayers;
+        while (!board.isGameOver() && board.getIsFootmanTurn() == footmanTurn && unitsLeft > 0) {
+            int count = board.generateMoves(0);
+            // the unit is boxed in
+            if (count == 0) break;
+            long[] moves = Arrays.copyOf(board.getMoves(0), count);
+            if (moveOrdering != null) moveOrdering.sort(board, moves, count, 0);
+            int best = -1;
+            if (timeBudget > 0) {
+                long now = System.nanoTime();
+                long unitDeadline = now + Math.max(0, startTime + timeBudget * 1000000 - now) / unitsLeft;
+                BoardSearch search = new BoardSearch(board, transpositionTable, moveOrdering, pool, unitDeadline,
+                        principalVariation);
+                search.setStatistics(statistics);
+                search.setQuiescenceNodes(quiescenceNodes);
+                int unitDepth = 0;
+                try {
+                    for (int depth = 1; depth <= numberOfPlayers; depth++) {
+                        best = aspirationBestMove(search, moves, count, depth, unitDepth > 0);
+                        unitDepth = depth;
+                        // the next iteration searches the best move so far first
+                        long bestMove = moves[best];
+                        System.arraycopy(moves, 0, moves, 1, best);
+                        moves[0] = bestMove;
+                        best = 0;
+                        if (System.nanoTime() >= unitDeadline) break;
+                    }
+                } catch (SearchTimeoutException e) {
+                    // keep the best move of the last search that finished
+                }
+                if (best >= 0) completedDepth = Math.min(completedDepth, unitDepth);
+            }
+            // not even one ply fit in the budget, the unit still needs an action
+            if (best < 0) {
+                int depth = timeBudget > 0 ? 1 : numberOfPlayers;
+                BoardSearch search = new BoardSearch(board, transpositionTable, moveOrdering, pool, 0, principalVariation);
+                search.setStatistics(statistics);
+                search.setQuiescenceNodes(quiescenceNodes);
+                best = search.bestMove(moves, count, depth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+                completedDepth = Math.min(completedDepth, depth);
+            }
+            actions.putAll(board.toActions(moves[best]));
+            board.make(moves[best]);
+            unitsLeft--;
+        }
+        if (ponderer != null && board.getIsFootmanTurn() != footmanTurn) ponderer.start(board, completedDepth);
+        System.out.println("Searched " + completedDepth + " plys per unit in " + (System.nanoTime() - startTime) / 1000000 + " ms");
+        searchedDepth = completedDepth;
+        return actions;
+    }
 
-            if (depth == numberOfPlayers){
-                tempChild.state.toString();
+    /**
+     * follows page 8 of lecture 8 very closely, but keeps track of which child gave the best value
+     *
+     * @param state The state being searched
+     * @param children Ordered children of the state
+     * @param depth The remaining number of plys under the state
+     * @param alpha
+     * @param beta
+     * @return The best of the children, null if there are none
+     * @throws IOException
+     */
+    private GameStateChild searchRoot(GameState state, List<GameStateChild> children, int depth, double alpha, double beta) throws IOException {
+        if (searchBoard != null) {
+            long[] moves = new long[children.size()];
+            for (int i = 0; i < moves.length; i++) {
+                moves[i] = rootMoves.get(children.get(i));
             }
+            BoardSearch search = new BoardSearch(searchBoard, transpositionTable, moveOrdering, pool, deadline,
+                    principalVariation);
+            search.setStatistics(statistics);
+            search.setQuiescenceNodes(quiescenceNodes);
+            int best = search.bestMove(moves, moves.length, depth, alpha, beta);
+            rootValue = search.getValue();
+            return best < 0 ? null : children.get(best);
+        }
+
+        boolean isMaxNode = state.getIsFootmanTurn();
+        double compareValue = isMaxNode ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        GameStateChild returnChild = null;
 
-            if (node.state.getIsFootmanTurn() && tempValue > compareValue ||
-                    !node.state.getIsFootmanTurn() && tempValue < compareValue){
+        for (GameStateChild c : children) {
+            double tempValue = rootCompactStates.isEmpty() ? alphaBetaValue(c.state, depth - 1, alpha, beta)
+                    : compactValue(rootCompactStates.get(c), depth - 1, alpha, beta);
+            if (returnChild == null || isMaxNode && tempValue > compareValue || !isMaxNode && tempValue < compareValue) {
                 compareValue = tempValue;
                 returnChild = c;
             }
+            if (isMaxNode) {
+                alpha = Math.max(alpha, tempValue);
+            } else {
+                beta = Math.min(beta, tempValue);
+            }
+            if (alpha >= beta) break;
+        }
+        rootValue = compareValue;
+        return returnChild;
+    }
+
+    /**
+     * searchRoot with a window of aspirationWindow either side of the value of the last search,
+     * and with the whole window again if the value falls outside it
+     *
+     * @param state The state being searched
+     * @param children Ordered children of the state
+     * @param depth The remaining number of plys under the state
+     * @param lastValueKnown whether rootValue holds the value of the iteration before
+     * @return The best of the children, null if there are none
+     * @throws IOException
+     */
+    private GameStateChild aspirationSearch(GameState state, List<GameStateChild> children, int depth, boolean lastValueKnown) throws IOException {
+        if (aspirationWindow > 0 && lastValueKnown) {
+            double alpha = rootValue - aspirationWindow;
+            double beta = rootValue + aspirationWindow;
+            GameStateChild bestChild = searchRoot(state, children, depth, alpha, beta);
+            if (rootValue > alpha && rootValue < beta) return bestChild;
+        }
+        return searchRoot(state, children, depth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * aspirationSearch for a unit of factoredStep, around the value of the search's last bestMove
+     */
+    private int aspirationBestMove(BoardSearch search, long[] moves, int count, int depth, boolean lastValueKnown) {
+        if (aspirationWindow > 0 && lastValueKnown) {
+            double alpha = search.getValue() - aspirationWindow;
+            double beta = search.getValue() + aspirationWindow;
+            int best = search.bestMove(moves, count, depth, alpha, beta);
+            if (search.getValue() > alpha && search.getValue() < beta) return best;
+        }
+        return search.bestMove(moves, count, depth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Alpha beta search that returns the minimax value of the state
+     *
+     * @param state The state to search from
+     * @param depth The remaining number of plys under this state
+     * @param alpha The current best value for the maximizing node from this node to the root
+     * @param beta  The current best value for the minimizing node from this node to the root
+     * @return The value of the state
+     * @throws IOException
+     */
+    private double alphaBetaValue(GameState state, int depth, double alpha, double beta) throws IOException {
+        if (deadline != 0 && (++nodesVisited & 63) == 0 && System.nanoTime() >= deadline) {
+            throw new SearchTimeoutException();
+        }
+        SearchStatistics.Counters counters = statistics == null ? null : statistics.forThread();
+        if (counters != null) counters.node();
+        // one side has no units left, the game is over
+        if (state.getFootmanUnitViews().isEmpty() || state.getArcherUnitViews().isEmpty()) {
+            return evaluate(state, counters);
+        }
+        if (depth == 0) {
+            if (quiescenceNodes == 0) return evaluate(state, counters);
+            quiescenceNodesLeft = quiescenceNodes;
+            return quiescenceValue(state, alpha, beta, counters);
+        }
+
+        // a state reached before by other moves may already be searched deep enough
+        double alphaOriginal = alpha;
+        double betaOriginal = beta;
+        long hash = state.getZobristHash();
+        boolean found = transpositionTable != null && transpositionTable.probe(hash, entry);
+        if (counters != null && transpositionTable != null) counters.probe(found);
+        if (found && entry.depth >= depth) {
+            if (entry.bound == TranspositionTable.EXACT) return entry.value;
+            if (entry.bound == TranspositionTable.LOWER_BOUND) {
+                alpha = Math.max(alpha, entry.value);
+            } else {
+                beta = Math.min(beta, entry.value);
+            }
+            if (alpha >= beta) return entry.value;
+        }
+
+        long startTime = counters == null ? 0 : System.nanoTime();
+        List<GameStateChild> children = state.getChildren();
+        if (counters != null) {
+            long generatedTime = System.nanoTime();
+            counters.expansion(depth, children.size(), generatedTime - startTime);
+            startTime = generatedTime;
+        }
+        // every unit of the side to move is boxed in
+        if (children.isEmpty()) return evaluate(state, counters);
+        orderChildrenWithHeuristics(children);
+        // the best child of an earlier search of this state is the most likely cutoff
+        if (found) moveToFront(children, entry.bestChild);
+        if (counters != null) counters.ordering(System.nanoTime() - startTime);
 
-            // updates alpha and beta or prunes
-            if (node.state.getIsFootmanTurn() && tempValue > childBeta ||
-                    !node.state.getIsFootmanTurn() && tempValue < childAlpha) {
+        boolean isMaxNode = state.getIsFootmanTurn();
+        double value = isMaxNode ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        long bestChild = 0;
+        for (int i = 0; i < children.size(); i++) {
+            GameStateChild c = children.get(i);
+            double childValue = alphaBetaValue(c.state, depth - 1, alpha, beta);
+            if (isMaxNode ? childValue > value : childValue < value) {
+                value = childValue;
+                bestChild = c.state.getZobristHash();
+            }
+            if (isMaxNode) {
+                alpha = Math.max(alpha, value);
+            } else {
+                beta = Math.min(beta, value);
+            }
+            // the node above will never allow this
+            if (alpha >= beta) {
+                if (counters != null) counters.cutoff(i);
                 break;
-            } else if (node.state.getIsFootmanTurn()) {
-                childAlpha = Math.max(childAlpha, tempValue);
+            }
+        }
+
+        if (transpositionTable != null) {
+            byte bound = value <= alphaOriginal ? TranspositionTable.UPPER_BOUND
+                    : value >= betaOriginal ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+            transpositionTable.store(hash, depth, value, bound, bestChild);
+        }
+        return value;
+    }
+
+    /**
+     * Value of a state at or below the horizon, searching only the attack children. The side to
+     * move doesn't have to attack, so the utility is a bound on the value: the least a max node
+     * is worth and the most a min node is. Once quiescenceNodesLeft runs out the states left
+     * are evaluated as they are.
+     *
+     * @param state The state to search from
+     * @param alpha The current best value for the maximizing node from this node to the root
+     * @param beta  The current best value for the minimizing node from this node to the root
+     * @param counters null if the search isn't counting
+     * @return The value of the state
+     */
+    private double quiescenceValue(GameState state, double alpha, double beta, SearchStatistics.Counters counters) {
+        double value = evaluate(state, counters);
+        if (state.getFootmanUnitViews().isEmpty() || state.getArcherUnitViews().isEmpty() || quiescenceNodesLeft <= 0) {
+            return value;
+        }
+        boolean isMaxNode = state.getIsFootmanTurn();
+        if (isMaxNode) {
+            alpha = Math.max(alpha, value);
+        } else {
+            beta = Math.min(beta, value);
+        }
+        if (alpha >= beta) return value;
+
+        for (GameStateChild c : orderChildrenWithHeuristics(state.getAttackChildren())) {
+            if (quiescenceNodesLeft <= 0) break;
+            quiescenceNodesLeft--;
+            if (counters != null) counters.node();
+            double childValue = quiescenceValue(c.state, alpha, beta, counters);
+            if (isMaxNode ? childValue > value : childValue < value) value = childValue;
+            if (isMaxNode) {
+                alpha = Math.max(alpha, value);
             } else {
-                childBeta = Math.min(childBeta, tempValue);
+                beta = Math.min(beta, value);
             }
+            if (alpha >= beta) break;
         }
+        return value;
+    }
 
-        return returnChild;
+    /**
+     * alphaBetaValue for a CompactGameState
+     *
+     * @param state The state to search from
+     * @param depth The remaining number of plys under this state
+     * @param alpha The current best value for the maximizing node from this node to the root
+     * @param beta  The current best value for the minimizing node from this node to the root
+     * @return The value of the state
+     */
+    private double compactValue(CompactGameState state, int depth, double alpha, double beta) {
+        if (deadline != 0 && (++nodesVisited & 63) == 0 && System.nanoTime() >= deadline) {
+            throw new SearchTimeoutException();
+        }
+        SearchStatistics.Counters counters = statistics == null ? null : statistics.forThread();
+        if (counters != null) counters.node();
+        if (depth == 0 || state.isGameOver()) return evaluate(state, counters);
+
+        double alphaOriginal = alpha;
+        double betaOriginal = beta;
+        long hash = state.getZobristHash();
+        boolean found = transpositionTable != null && transpositionTable.probe(hash, entry);
+        if (counters != null && transpositionTable != null) counters.probe(found);
+        if (found && entry.depth >= depth) {
+            if (entry.bound == TranspositionTable.EXACT) return entry.value;
+            if (entry.bound == TranspositionTable.LOWER_BOUND) {
+                alpha = Math.max(alpha, entry.value);
+            } else {
+                beta = Math.min(beta, entry.value);
+            }
+            if (alpha >= beta) return entry.value;
+        }
+
+        long startTime = counters == null ? 0 : System.nanoTime();
+        List<CompactGameState.Child> children = state.getChildren();
+        if (counters != null) {
+            long generatedTime = System.nanoTime();
+            counters.expansion(depth, children.size(), generatedTime - startTime);
+            startTime = generatedTime;
+        }
+        if (children.isEmpty()) return evaluate(state, counters);
+        orderCompactChildren(children);
+        if (found) {
+            for (int i = 0; i < children.size(); i++) {
+                if (children.get(i).state.getZobristHash() == entry.bestChild) {
+                    children.add(0, children.remove(i));
+                    break;
+                }
+            }
+        }
+        if (counters != null) counters.ordering(System.nanoTime() - startTime);
+
+        boolean isMaxNode = state.getIsFootmanTurn();
+        double value = isMaxNode ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        long bestChild = 0;
+        for (int i = 0; i < children.size(); i++) {
+            CompactGameState.Child c = children.get(i);
+            double childValue = compactValue(c.state, depth - 1, alpha, beta);
+            if (isMaxNode ? childValue > value : childValue < value) {
+                value = childValue;
+                bestChild = c.state.getZobristHash();
+            }
+            if (isMaxNode) {
+                alpha = Math.max(alpha, value);
+            } else {
+                beta = Math.min(beta, value);
+            }
+            // the node above will never allow this
+            if (alpha >= beta) {
+                if (counters != null) counters.cutoff(i);
+                break;
+            }
+        }
+
+        if (transpositionTable != null) {
+            byte bound = value <= alphaOriginal ? TranspositionTable.UPPER_BOUND
+                    : value >= betaOriginal ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+            transpositionTable.store(hash, depth, value, bound, bestChild);
+        }
+        return value;
+    }
+
+    /**
+     * getUtility of the state, timed if the search is counting
+     */
+    private static double evaluate(GameState state, SearchStatistics.Counters counters) {
+        if (counters == null) return state.getUtility();
+        long startTime = System.nanoTime();
+        double utility = state.getUtility();
+        counters.evaluation(System.nanoTime() - startTime);
+        return utility;
+    }
+
+    /**
+     * evaluate for a CompactGameState
+     */
+    private static double evaluate(CompactGameState state, SearchStatistics.Counters counters) {
+        if (counters == null) return state.getUtility();
+        long startTime = System.nanoTime();
+        double utility = state.getUtility();
+        counters.evaluation(System.nanoTime() - startTime);
+        return utility;
+    }
+
+    /**
+     * moves the child whose state has the given hash to the front of the list, if there is one
+     * @param children
+     * @param childHash
+     */
+    private static void moveToFront(List<GameStateChild> children, long childHash) {
+        for (int i = 0; i < children.size(); i++) {
+            if (children.get(i).state.getZobristHash() == childHash) {
+                children.add(0, children.remove(i));
+                return;
+            }
+        }
     }
 
     /**
      * ordering heuristic used in orderChildrenWithHeuristics
      * We do it this way because we don't want to run the whole getutility method
      * that would take too much time
-     * but we use a valuable portion of the getutility function so that we can prune
-     * a decent amount of states
-     * This is a valuable portion of the getutility function because the distance from each footman
-     * to its closest archer shows roughly how good a state is
-     * the closer a footman is to an archer the better because they can only attack when they're adjacent
-     * @param state
+     * Every attack in the child's action is worth more than any movement, since attacks are the
+     * only moves that change the utility and so the most likely to cause a cutoff.
+     * Among children with the same number of attacks, the distance from each footman
+     * to its closest archer shows roughly how good a state is:
+     * the closer a footman is to an archer the better because they can only attack when they're adjacent,
+     * and the further the better for the archers
+     * @param child
      * @return
      */
-    private double orderingHeuristic(GameState state) {
-        return 0;
-        /*int sumDistFromFootToClosestArch = 0;
-
+    private double orderingHeuristic(GameStateChild child) {
+        GameState state = child.state;
+        int sumDistFromFootToClosestArch = 0;
         for (GameState.MyUnitView footUV : state.getFootmanUnitViews()) {
             int distFromFootToClosestArch = Integer.MAX_VALUE;
             for (GameState.MyUnitView archUV : state.getArcherUnitViews()) {
-                int tempDistFromFootToArch = Math.abs(archUV.getXPosition() - footUV.getXPosition())
-                        + Math.abs(archUV.getYPosition() - footUV.getYPosition());
+                // walking distance, a footman behind a tree is further away than it looks
+                int tempDistFromFootToArch = state.getDistanceField().distance(footUV.getXPosition(),
+                        footUV.getYPosition(), archUV.getXPosition(), archUV.getYPosition());
                 if (tempDistFromFootToArch < distFromFootToClosestArch) {
                     distFromFootToClosestArch = tempDistFromFootToArch;
                 }
             }
-            sumDistFromFootToClosestArch += distFromFootToClosestArch;
+            if (distFromFootToClosestArch != Integer.MAX_VALUE) sumDistFromFootToClosestArch += distFromFootToClosestArch;
+        }
+        return orderingHeuristic(child.action, state.getIsFootmanTurn(), sumDistFromFootToClosestArch);
+    }
+
+    /**
+     * orderingHeuristic of a CompactGameState child, the same value as for the GameStateChild
+     * @param child
+     * @return
+     */
+    private double orderingHeuristic(CompactGameState.Child child) {
+        int sumDistFromFootToClosestArch = 0;
+        for (int i = 0; i < child.state.getFootmanCount(); i++) {
+            int distFromFootToClosestArch = child.state.nearestArcherDistance(i);
+            if (distFromFootToClosestArch != Integer.MAX_VALUE) sumDistFromFootToClosestArch += distFromFootToClosestArch;
+        }
+        return orderingHeuristic(child.action, child.state.getIsFootmanTurn(), sumDistFromFootToClosestArch);
+    }
+
+    private static double orderingHeuristic(Map<Integer, Action> actions, boolean isFootmanTurn, int sumDistFromFootToClosestArch) {
+        int attacks = 0;
+        for (Action action : actions.values()) {
+            if (action.getType() == ActionType.PRIMITIVEATTACK) attacks++;
         }
-        return state.getIsFootmanTurn() ? sumDistFromFootToClosestArch : -sumDistFromFootToClosestArch;*/
+        // the child's side to move is the side that didn't make the move
+        double distanceScore = isFootmanTurn ? sumDistFromFootToClosestArch : -sumDistFromFootToClosestArch;
+        return attacks * 1000000 + distanceScore;
     }
     /**
      * You will implement this.
@@ -155,13 +797,35 @@ public class MinimaxAlphaBeta extends Agent {
      * Use this function inside of your alphaBetaSearch method.
      *
      * Include a good comment about what your heuristics are and why you chose them.
+     * The heuristic of each child is computed once, the sort is stable so children that score
+     * the same keep the order getChildren made them in.
      *
      * @param children
      * @return The list of children sorted by your heuristic.
      */
     public List<GameStateChild> orderChildrenWithHeuristics(List<GameStateChild> children)
     {
-        children.sort((a, b) -> Double.compare(orderingHeuristic(b.state), orderingHeuristic(a.state)));
+        if (moveOrdering == null) return children;
+        Map<GameStateChild, Double> heuristics = new IdentityHashMap<>();
+        for (GameStateChild child : children) {
+            heuristics.put(child, orderingHeuristic(child));
+        }
+        children.sort((a, b) -> Double.compare(heuristics.get(b), heuristics.get(a)));
+        return children;
+    }
+
+    /**
+     * orderChildrenWithHeuristics for the children of a CompactGameState
+     * @param children
+     * @return The list of children sorted by the heuristic.
+     */
+    private List<CompactGameState.Child> orderCompactChildren(List<CompactGameState.Child> children) {
+        if (moveOrdering == null) return children;
+        Map<CompactGameState.Child, Double> heuristics = new IdentityHashMap<>();
+        for (CompactGameState.Child child : children) {
+            heuristics.put(child, orderingHeuristic(child));
+        }
+        children.sort((a, b) -> Double.compare(heuristics.get(b), heuristics.get(a)));
         return children;
     }
 }
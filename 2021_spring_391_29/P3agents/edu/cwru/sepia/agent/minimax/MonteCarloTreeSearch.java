@@ -0,0 +1,424 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.agent.Agent;
+import edu.cwru.sepia.environment.model.history.History;
+import edu.cwru.sepia.environment.model.state.State;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monte Carlo tree search for the footmen, for maps with more units than alpha beta can search
+ * to a useful depth.
+ *
+ * The tree is built on a factored SearchBoard made from the GameState of each turn, so every
+ * node is one unit's move or attack and the side's joint action is the path through its units'
+ * nodes. Each iteration selects down the tree by UCT, adds one child, plays a rollout of random
+ * or heuristic unit actions from it and backs the result up the path. The turn plays the most
+ * visited child of each unit in turn. The part of the tree below the move played and the
+ * archers' answer is kept for the next turn.
+ *
+ * Rewards are between 0 and 1 for the footmen: 1 once the archers are dead, 0 once the footmen
+ * are, and otherwise a logistic function of how much the score changed since the root.
+ *
+ * With more than one thread every thread runs its own iterations on its own board. A thread
+ * adds a virtual loss to the nodes it is passing through, so the others try different ones.
+ * Node statistics are read without locking, a stale read only makes a selection a little worse.
+ */
+public class MonteCarloTreeSearch extends Agent {
+    // score change that moves a rollout's reward from 0.5 to about 0.73
+    private static final double SCORE_SCALE = 40;
+    // HP a step of a footman towards its nearest archer is worth in a rollout's score. The
+    // archers outrange the footmen, so a rollout mostly ends with the footmen having lost HP
+    // whatever they did first, only getting closer tells the first moves apart.
+    private static final double DISTANCE_SCORE = 2;
+    // a rollout of heuristic actions plays a random one this often instead
+    private static final double RANDOM_ROLLOUT_RATE = 0.25;
+
+    /**
+     * a unit's action and what the iterations through it have found
+     */
+    private static class Node {
+        // unit move on the board that leads here, 0 for the root
+        final long move;
+        // moves of the acting unit here, null until the node is first visited
+        long[] moves;
+        Node[] children;
+        // children added so far, in the order of moves
+        int expanded;
+        int visits;
+        // sum of the footmen's rewards of the iterations through this node
+        double reward;
+        // iterations on other threads still passing through this node
+        int virtualLosses;
+
+        Node(long move) {
+            this.move = move;
+        }
+
+        /**
+         * generates the moves of the acting unit on the board, the first time the node is reached
+         */
+        synchronized void generate(SearchBoard board, int ply) {
+            if (moves != null) return;
+            int count = board.isGameOver() ? 0 : board.generateMoves(ply);
+            moves = count == 0 ? new long[0] : Arrays.copyOf(board.getMoves(ply), count);
+            children = new Node[count];
+        }
+
+        /**
+         * @return the next child not added yet, null once all of them are
+         */
+        synchronized Node expand() {
+            if (expanded == children.length) return null;
+            Node child = new Node(moves[expanded]);
+            children[expanded++] = child;
+            child.addVirtualLoss();
+            return child;
+        }
+
+        synchronized void addVirtualLoss() {
+            virtualLosses++;
+        }
+
+        synchronized void update(double footmanReward) {
+            virtualLosses--;
+            visits++;
+            reward += footmanReward;
+        }
+    }
+
+    // milliseconds each turn searches for
+    private final long timeBudget;
+    // UCT exploration constant
+    private double exploration = Math.sqrt(2);
+    // most unit actions a rollout plays before the board is scored
+    private int rolloutDepth = 12;
+    // rollouts prefer attacks and moves towards the enemy, false plays random unit actions
+    private boolean heuristicRollouts = true;
+    // keep the tree below the last turn's move, false starts a new tree every turn
+    private boolean reuseTree = true;
+    // threads running iterations, null to run them on this thread only
+    private ForkJoinPool pool;
+    private int threads = 1;
+
+    // root of the tree and the board at the root
+    private Node root;
+    private SearchBoard rootBoard;
+    // score at the root the tree was started from, rewards are scored against it
+    private double rootScore;
+    // iterations of the current search
+    private final AtomicLong iterations = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * args[0] is the number of milliseconds to search per turn. It can be followed by optional
+     * name=value pairs:
+     * threads: number of threads running iterations, 1 by default
+     * exploration: UCT exploration constant, sqrt(2) by default
+     * rolloutDepth: most unit actions a rollout plays before the board is scored, 12 by default
+     * rollout: heuristic (default) plays mostly attacks and moves towards the enemy, random plays
+     * random unit actions
+     * reuseTree: true (default) keeps the tree below the move played and the archers' answer
+     * for the next turn
+     *
+     * @param playernum
+     * @param args
+     */
+    public MonteCarloTreeSearch(int playernum, String[] args) {
+        super(playernum);
+        if (args.length < 1) {
+            System.err.println("You must specify the milliseconds to search per turn");
+            System.exit(1);
+        }
+        timeBudget = Long.parseLong(args[0]);
+        for (int i = 1; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            if (option.length != 2) {
+                System.err.println("Ignoring argument " + args[i] + ", expected name=value");
+                continue;
+            }
+            switch (option[0]) {
+                case "threads":
+                    threads = Integer.parseInt(option[1]);
+                    break;
+                case "exploration":
+                    exploration = Double.parseDouble(option[1]);
+                    break;
+                case "rolloutDepth":
+                    rolloutDepth = Integer.parseInt(option[1]);
+                    break;
+                case "rollout":
+                    heuristicRollouts = !option[1].equals("random");
+                    break;
+                case "reuseTree":
+                    reuseTree = Boolean.parseBoolean(option[1]);
+                    break;
+                default:
+                    System.err.println("Ignoring unknown argument " + args[i]);
+            }
+        }
+        if (threads > 1) pool = new ForkJoinPool(threads);
+    }
+
+    @Override
+    public Map<Integer, Action> initialStep(State.StateView newstate, History.HistoryView statehistory) {
+        DistanceField.forState(newstate).precompute();
+        return middleStep(newstate, statehistory);
+    }
+
+    @Override
+    public Map<Integer, Action> middleStep(State.StateView newstate, History.HistoryView statehistory) {
+        long startTime = System.nanoTime();
+        GameState state = new GameState(newstate);
+        if (!SearchBoard.fits(state)) {
+            System.err.println("More than " + SearchBoard.MAX_UNITS_PER_SIDE + " units a side, not searching");
+            root = null;
+            return new HashMap<>();
+        }
+        SearchBoard board = new SearchBoard(state, true);
+        boolean reused = reuseTree && findRoot(board);
+        if (!reused) {
+            root = new Node(0);
+            rootBoard = board;
+            // kept nodes were scored against the score at the root of their tree
+            rootScore = score(rootBoard);
+        }
+        long previousVisits = root.visits;
+        search(startTime + timeBudget * 1000000);
+
+        // every unit of the side plays its most visited child, one after another down the tree
+        Map<Integer, Action> actions = new HashMap<>();
+        boolean footmanTurn = rootBoard.getIsFootmanTurn();
+        SearchBoard played = new SearchBoard(rootBoard);
+        Node node = root;
+        while (!played.isGameOver() && played.getIsFootmanTurn() == footmanTurn) {
+            Node best = mostVisitedChild(node);
+            // not searched this far, or the unit is boxed in
+            if (best == null) break;
+            actions.putAll(played.toActions(best.move));
+            played.make(best.move);
+            node = best;
+        }
+        // the archers' answer is looked for below here next turn
+        root = node;
+        rootBoard = played;
+        System.out.println("Ran " + iterations.get() + " iterations in " + (System.nanoTime() - startTime) / 1000000
+                + " ms" + (reused ? ", " + previousVisits + " kept from last turn" : ""));
+        return actions;
+    }
+
+    @Override
+    public void terminalStep(State.StateView newstate, History.HistoryView statehistory) {
+        System.exit(0);
+    }
+
+    @Override
+    public void savePlayerData(OutputStream os) {
+    }
+
+    @Override
+    public void loadPlayerData(InputStream is) {
+    }
+
+    /**
+     * Looks below the node of the move played last turn for the archers' answer, the node whose
+     * board is the new turn's board, and makes it the root.
+     *
+     * @param board The new turn's board
+     * @return whether it was found
+     */
+    private boolean findRoot(SearchBoard board) {
+        if (root == null) return false;
+        Deque<Node> nodes = new ArrayDeque<>();
+        Deque<SearchBoard> boards = new ArrayDeque<>();
+        nodes.push(root);
+        boards.push(rootBoard);
+        while (!nodes.isEmpty()) {
+            Node node = nodes.pop();
+            SearchBoard nodeBoard = boards.pop();
+            if (nodeBoard.getZobristHash() == board.getZobristHash()) {
+                root = node;
+                rootBoard = nodeBoard;
+                return true;
+            }
+            // the footmen moving again means the archers' turn is over
+            if (nodeBoard.getIsFootmanTurn() || node.children == null) continue;
+            for (int i = 0; i < node.expanded; i++) {
+                SearchBoard childBoard = new SearchBoard(nodeBoard);
+                childBoard.make(node.children[i].move);
+                nodes.push(node.children[i]);
+                boards.push(childBoard);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * runs iterations from the root until the deadline, on every thread
+     */
+    private void search(long deadline) {
+        iterations.set(0);
+        if (pool == null) {
+            runIterations(deadline);
+            return;
+        }
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            tasks.add(ForkJoinTask.adapt(() -> runIterations(deadline)));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+    }
+
+    private void runIterations(long deadline) {
+        SearchBoard board = new SearchBoard(rootBoard);
+        List<Node> path = new ArrayList<>();
+        do {
+            iterate(board, path);
+            iterations.incrementAndGet();
+        } while (System.nanoTime() < deadline);
+    }
+
+    /**
+     * One iteration: selects down the tree and adds a child, plays a rollout from it and backs
+     * its reward up the path. The board is back at the root afterwards.
+     */
+    private void iterate(SearchBoard board, List<Node> path) {
+        path.clear();
+        Node node = root;
+        node.addVirtualLoss();
+        path.add(node);
+        while (true) {
+            node.generate(board, path.size() - 1);
+            Node child = node.expand();
+            boolean added = child != null;
+            if (!added) child = select(node, board.getIsFootmanTurn());
+            // the game is over or the unit is boxed in
+            if (child == null) break;
+            board.make(child.move);
+            path.add(child);
+            node = child;
+            if (added) break;
+        }
+
+        double footmanReward = rollout(board, path.size() - 1);
+
+        for (int i = path.size() - 1; i > 0; i--) {
+            path.get(i).update(footmanReward);
+            board.unmake(path.get(i).move);
+        }
+        path.get(0).update(footmanReward);
+    }
+
+    /**
+     * @return the child with the highest upper confidence bound for the side to move, null if
+     * there are none
+     */
+    private Node select(Node node, boolean footmanTurn) {
+        double logVisits = Math.log(Math.max(1, node.visits + node.virtualLosses));
+        Node best = null;
+        double bestBound = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < node.expanded; i++) {
+            Node child = node.children[i];
+            // virtual losses count as visits that scored nothing for the side
+            int visits = child.visits + child.virtualLosses;
+            if (visits == 0) continue;
+            double mean = (footmanTurn ? child.reward : child.visits - child.reward) / visits;
+            double bound = mean + exploration * Math.sqrt(logVisits / visits);
+            if (bound > bestBound) {
+                bestBound = bound;
+                best = child;
+            }
+        }
+        if (best != null) best.addVirtualLoss();
+        return best;
+    }
+
+    private static Node mostVisitedChild(Node node) {
+        Node best = null;
+        for (int i = 0; i < node.expanded; i++) {
+            if (best == null || node.children[i].visits > best.visits) best = node.children[i];
+        }
+        return best;
+    }
+
+    /**
+     * Plays unit actions from the board until the game is over or rolloutDepth of them are
+     * played, takes them back and scores where it got to.
+     *
+     * @param board
+     * @param ply plys of the board below the root, the first ply the rollout generates moves at
+     * @return The footmen's reward
+     */
+    private double rollout(SearchBoard board, int ply) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long[] played = new long[rolloutDepth];
+        int count = 0;
+        while (count < rolloutDepth && !board.isGameOver()) {
+            int moveCount = board.generateMoves(ply + count);
+            if (moveCount == 0) break;
+            long[] moves = board.getMoves(ply + count);
+            long move = moves[random.nextInt(moveCount)];
+            if (heuristicRollouts && random.nextDouble() >= RANDOM_ROLLOUT_RATE) move = heuristicMove(board, moves, moveCount);
+            board.make(move);
+            played[count++] = move;
+        }
+        double footmanReward = reward(board);
+        while (count > 0) {
+            board.unmake(played[--count]);
+        }
+        return footmanReward;
+    }
+
+    /**
+     * @return an attack if the unit has one, or else the move that takes it furthest towards
+     * its target, the first among equals
+     */
+    private static long heuristicMove(SearchBoard board, long[] moves, int count) {
+        long best = moves[0];
+        int bestGain = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            if (isAttack(moves[i])) return moves[i];
+            int gain = board.distanceGain(moves[i]);
+            if (gain > bestGain) {
+                bestGain = gain;
+                best = moves[i];
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return whether the unit move, which has a single unit's code, is an attack
+     */
+    private static boolean isAttack(long move) {
+        while (move != 0 && (move & 0xFF) == 0) move >>>= 8;
+        return (move & 0xFF) >= 5;
+    }
+
+    private double reward(SearchBoard board) {
+        if (board.getArchersAlive() == 0) return 1;
+        if (board.getFootmenAlive() == 0) return 0;
+        return 1 / (1 + Math.exp(-(score(board) - rootScore) / SCORE_SCALE));
+    }
+
+    /**
+     * like getUtility, with the distances weighing much more
+     */
+    private static double score(SearchBoard board) {
+        return board.getFootmanHP() - board.getArcherHP() - DISTANCE_SCORE * board.getDistanceSum();
+    }
+}
@@ -0,0 +1,122 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+
+/**
+ * Orders the joint moves BoardSearch generates so that a cutoff is most likely found on the
+ * first or second move.
+ *
+ * A joint move scores higher for every attack in it, then for being a killer move (one that
+ * cut off another node at the same ply), then for bringing units closer to their targets
+ * (SearchBoard.distanceGain), with the history table breaking ties. The history table counts,
+ * for each unit of a side and each action of that unit, how much cutting off it has done,
+ * weighted by the depth of the cutoff. The best child from the transposition table is put in
+ * front of all of these by the search itself.
+ *
+ * The tables are shared by all search threads. Updates are not synchronized, a lost update
+ * only makes the ordering a little worse.
+ */
+public class MoveOrdering {
+    private static final int ATTACK_SCORE = 1 << 24;
+    private static final int FIRST_KILLER_SCORE = 1 << 22;
+    private static final int SECOND_KILLER_SCORE = 1 << 21;
+    private static final int DISTANCE_SCORE = 1 << 12;
+    // most a move's history can add, so it never outweighs a step of distance
+    private static final int MAX_HISTORY_SCORE = DISTANCE_SCORE - 1;
+    // unit action codes, see SearchBoard
+    private static final int CODES = 5 + 2 * SearchBoard.MAX_UNITS_PER_SIDE;
+
+    // two killer moves for each ply, the most recent first
+    private long[][] killers = new long[16][2];
+    // [footmen 0 / archers 1][unit of the side][action code]
+    private final int[][][] history = new int[2][SearchBoard.MAX_UNITS_PER_SIDE][CODES];
+    // scores of the moves being sorted and the sorted moves, one pair of buffers per thread
+    private final ThreadLocal<long[][]> buffers = ThreadLocal.withInitial(() -> new long[2][64]);
+
+    /**
+     * Called before every new search from the root. Killers are only good for the position
+     * they were found in and are dropped, history is halved so the last searches weigh most.
+     */
+    public void startSearch() {
+        for (long[] plyKillers : killers) {
+            Arrays.fill(plyKillers, 0);
+        }
+        for (int[][] side : history) {
+            for (int[] unit : side) {
+                for (int code = 0; code < CODES; code++) {
+                    unit[code] >>= 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * sorts the moves of the side to move on the board, best first
+     * @param board
+     * @param moves
+     * @param count
+     * @param ply
+     */
+    public void sort(SearchBoard board, long[] moves, int count, int ply) {
+        long[][] buffer = buffers.get();
+        if (buffer[0].length < count) {
+            buffer[0] = new long[Math.max(count, buffer[0].length * 2)];
+            buffer[1] = new long[buffer[0].length];
+        }
+        long[] sortKeys = buffer[0];
+        long[] sorted = buffer[1];
+        long[] plyKillers = ply < killers.length ? killers[ply] : null;
+        int[][] sideHistory = history[board.getIsFootmanTurn() ? 0 : 1];
+        for (int i = 0; i < count; i++) {
+            long move = moves[i];
+            int score = 0;
+            int historyScore = 0;
+            for (int unit = 0; unit < SearchBoard.MAX_UNITS_PER_SIDE; unit++) {
+                int code = (int) (move >>> (8 * unit)) & 0xFF;
+                if (code == 0) continue;
+                if (code >= 5) score += ATTACK_SCORE;
+                historyScore += sideHistory[unit][code];
+            }
+            if (plyKillers != null && move == plyKillers[0]) {
+                score += FIRST_KILLER_SCORE;
+            } else if (plyKillers != null && move == plyKillers[1]) {
+                score += SECOND_KILLER_SCORE;
+            }
+            score += board.distanceGain(move) * DISTANCE_SCORE + Math.min(historyScore, MAX_HISTORY_SCORE);
+            // highest score first, and in generated order among equal scores
+            sortKeys[i] = (long) -score << 32 | i;
+        }
+        Arrays.sort(sortKeys, 0, count);
+        for (int i = 0; i < count; i++) {
+            sorted[i] = moves[(int) sortKeys[i]];
+        }
+        System.arraycopy(sorted, 0, moves, 0, count);
+    }
+
+    /**
+     * records a move of the side to move on the board that cut off the search
+     * @param board
+     * @param move
+     * @param ply
+     * @param depth plys that were left below the node
+     */
+    public void cutoff(SearchBoard board, long move, int ply, int depth) {
+        int[][] sideHistory = history[board.getIsFootmanTurn() ? 0 : 1];
+        for (int unit = 0; unit < SearchBoard.MAX_UNITS_PER_SIDE; unit++) {
+            int code = (int) (move >>> (8 * unit)) & 0xFF;
+            if (code != 0) sideHistory[unit][code] += depth * depth;
+        }
+        if (ply >= killers.length) {
+            long[][] grown = Arrays.copyOf(killers, ply * 2);
+            for (int i = killers.length; i < grown.length; i++) {
+                grown[i] = new long[2];
+            }
+            killers = grown;
+        }
+        long[] plyKillers = killers[ply];
+        if (plyKillers[0] != move) {
+            plyKillers[1] = plyKillers[0];
+            plyKillers[0] = move;
+        }
+    }
+}
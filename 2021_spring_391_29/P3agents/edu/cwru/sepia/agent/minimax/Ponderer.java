@@ -0,0 +1,150 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.action.Action;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Searches on a background thread while the archers take their turn, so the time between two
+ * of MinimaxAlphaBeta's turns isn't wasted.
+ *
+ * Pondering starts from the board after the move just played. The archers' reply is guessed
+ * with a search as deep as the turn's own, which the transposition table mostly answers, and
+ * the position after it is then searched one ply deeper at a time until the next turn stops it.
+ * Every search stores its results in the transposition table the turns share, so if the archers
+ * did reply as guessed the next turn finds the pondered subtree there, and a ponder that got to
+ * the full depth already has the move to play.
+ */
+public class Ponderer {
+    private final TranspositionTable transpositionTable;
+    private final MoveOrdering moveOrdering;
+    private final ForkJoinPool pool;
+    private final boolean principalVariation;
+    private final int quiescenceNodes;
+    // plys the guessed position is searched to at most
+    private final int maxDepth;
+    private Thread thread;
+    private BoardSearch search;
+    // the guessed position, null until the reply is guessed
+    private SearchBoard guessed;
+    // the best move of the deepest search of the guessed position that finished, and its plys
+    private long bestMove;
+    private int completedDepth;
+
+    /**
+     * constructor for Ponderer, the arguments are those of the searches of the turns
+     * @param transpositionTable null to ponder without one, only a ponder to the full depth helps then
+     * @param moveOrdering null to search the moves in the order they are generated
+     * @param pool threads to search with, null to ponder on a single thread
+     * @param principalVariation whether to search every child but the eldest with a null window first
+     * @param quiescenceNodes see BoardSearch.setQuiescenceNodes
+     * @param maxDepth plys to search the guessed position to at most
+     */
+    public Ponderer(TranspositionTable transpositionTable, MoveOrdering moveOrdering, ForkJoinPool pool,
+                    boolean principalVariation, int quiescenceNodes, int maxDepth) {
+        this.transpositionTable = transpositionTable;
+        this.moveOrdering = moveOrdering;
+        this.pool = pool;
+        this.principalVariation = principalVariation;
+        this.quiescenceNodes = quiescenceNodes;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Starts pondering, stopping the last ponder first if it is still running.
+     *
+     * @param board the board after the move played, with the archers to move. The ponder makes
+     * moves on it, the caller must not use it any more.
+     * @param depth plys the turn searched, the reply is guessed with a search as deep
+     */
+    public void start(SearchBoard board, int depth) {
+        stop();
+        guessed = null;
+        completedDepth = 0;
+        if (board.isGameOver()) return;
+        search = new BoardSearch(board, transpositionTable, moveOrdering, pool, 0, principalVariation);
+        search.setQuiescenceNodes(quiescenceNodes);
+        thread = new Thread(() -> ponder(board, Math.max(1, depth - 1)), "ponder");
+        // the game ends with System.exit in terminalStep, which mustn't wait for the ponder
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops pondering and waits for the thread to finish, so its results are all in the
+     * transposition table before the turn's search starts.
+     */
+    public void stop() {
+        if (thread == null) return;
+        search.stop();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    /**
+     * Plays the best move of the last ponder if it searched the position the turn starts from
+     * deep enough, and starts pondering again from the board after it. Call after stop.
+     *
+     * @param hash Zobrist hash of the position the turn starts from
+     * @param depth plys the turn would search
+     * @return the actions of the move, null if the last ponder guessed another position, didn't
+     * search this one depth plys, or was on a factored board, where a move is only one unit's
+     * action
+     */
+    public Map<Integer, Action> play(long hash, int depth) {
+        if (thread != null || guessed == null || guessed.isFactored()) return null;
+        if (guessed.getZobristHash() != hash || completedDepth < depth) return null;
+        SearchBoard board = guessed;
+        Map<Integer, Action> actions = board.toActions(bestMove);
+        board.make(bestMove);
+        start(board, completedDepth);
+        return actions;
+    }
+
+    /**
+     * @return plys the last ponder searched the guessed position
+     */
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    private void ponder(SearchBoard board, int replyDepth) {
+        try {
+            // the archers' reply, one unit at a time on a factored board
+            boolean footmanTurn = board.getIsFootmanTurn();
+            while (!board.isGameOver() && board.getIsFootmanTurn() == footmanTurn) {
+                int count = board.generateMoves(0);
+                // the unit is boxed in
+                if (count == 0) return;
+                long[] replies = Arrays.copyOf(board.getMoves(0), count);
+                if (moveOrdering != null) moveOrdering.sort(board, replies, count, 0);
+                board.make(replies[search.bestMove(replies, count, replyDepth, Double.NEGATIVE_INFINITY,
+                        Double.POSITIVE_INFINITY)]);
+            }
+            if (board.isGameOver()) return;
+
+            if (moveOrdering != null) moveOrdering.startSearch();
+            int count = board.generateMoves(0);
+            if (count == 0) return;
+            long[] moves = Arrays.copyOf(board.getMoves(0), count);
+            if (moveOrdering != null) moveOrdering.sort(board, moves, count, 0);
+            guessed = board;
+            for (int depth = 1; depth <= maxDepth; depth++) {
+                int best = search.bestMove(moves, count, depth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+                // the next iteration searches the best move so far first
+                long move = moves[best];
+                System.arraycopy(moves, 0, moves, 1, best);
+                moves[0] = move;
+                bestMove = move;
+                completedDepth = depth;
+            }
+        } catch (SearchTimeoutException e) {
+            // the next turn has started, keep the deepest search that finished
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * The trees of a map as one bit per cell. It never changes after it is made, so every
+ * CompactGameState of a search shares the same one.
+ */
+public class ResourceBitmap {
+    private final int xExtent;
+    private final int yExtent;
+    // bit y * xExtent + x is set when that cell holds a tree
+    private final long[] bits;
+
+    /**
+     * constructor for ResourceBitmap
+     * @param state the state whose trees to copy
+     */
+    public ResourceBitmap(GameState state) {
+        xExtent = state.getXExtent();
+        yExtent = state.getYExtent();
+        bits = new long[(xExtent * yExtent + 63) >>> 6];
+        for (int cell = 0; cell < xExtent * yExtent; cell++) {
+            if (state.isResourceAt(cell % xExtent, cell / xExtent)) bits[cell >>> 6] |= 1L << cell;
+        }
+    }
+
+    public int getXExtent() {
+        return xExtent;
+    }
+
+    public int getYExtent() {
+        return yExtent;
+    }
+
+    public boolean inBounds(int x, int y) {
+        return x >= 0 && x < xExtent && y >= 0 && y < yExtent;
+    }
+
+    /**
+     * @return whether the cell, which must be in bounds, holds a tree
+     */
+    public boolean isResourceAt(int x, int y) {
+        int cell = y * xExtent + x;
+        return (bits[cell >>> 6] & 1L << cell) != 0;
+    }
+}
@@ -0,0 +1,652 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.util.Direction;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single mutable copy of a GameState that the search moves along the tree with make and
+ * unmake, instead of building a new GameState for every child.
+ *
+ * Units live in parallel arrays, footmen first and archers after them, in the order of the
+ * GameState's lists. A joint move of the side to move is packed into a long with 8 bits per
+ * unit of that side: 0 for no action (the unit is dead), 1 to 4 for a move in the direction of
+ * the same index in GameState.getMovableDirections, and 5 + t for an attack on unit t. Moves
+ * carry everything needed to undo them, since an attack always takes the attacker's basic
+ * attack off the target and a killed unit is only marked by HP at or below 0.
+ *
+ * A factored board gives every unit its own ply instead: the side to move plays one unit's
+ * action at a time, a joint move with a single unit's code, and the turn passes once its last
+ * living unit has acted. The unit to act next is part of the position, so it is part of the hash.
+ *
+ * generateMoves produces joint moves in exactly the order of GameState.getChildren, and the
+ * Zobrist hash is kept the same way as GameState's, so both searches see the same tree and
+ * share transposition table entries.
+ *
+ * The parts of GameState.getUtility are kept up to date as moves are made: the HP totals of
+ * both sides, and each footman's walking distance to its nearest archer, which is looked up again
+ * right away for a footman that moved or died. When an archer moves or dies every footman's
+ * distance may change, so the distances are only marked stale and looked up once the utility is
+ * asked for, since the search makes several archer steps for every leaf it evaluates. Making a
+ * move saves the distances on a stack and taking it back restores them, so unmake never looks
+ * one up.
+ */
+public class SearchBoard {
+    // most units of one side a joint move has room for
+    public static final int MAX_UNITS_PER_SIDE = 8;
+
+    private static final List<Direction> DIRECTIONS = GameState.getMovableDirections();
+
+    private final int xExtent;
+    private final int yExtent;
+    private final boolean[] resource;
+    // unit index standing on each cell, -1 if none
+    private final int[] occupant;
+    private final int footmanCount;
+    private final int unitCount;
+    private final int[] ids;
+    private final int[] xs;
+    private final int[] ys;
+    private final int[] hps;
+    private final int[] attacks;
+    private final int archerRange;
+    private boolean footmanTurn;
+    private long zobristHash;
+    private int footmenAlive;
+    private int archersAlive;
+    private final boolean factored;
+    // on a factored board the unit whose action is next, -1 once the game is over
+    private int actingUnit = -1;
+    // the acting unit before each move made on a factored board, to take the move back
+    private int[] actingStack = new int[16];
+    private int actingStackSize = 0;
+    private final DistanceField distanceField;
+    private int footmanHP;
+    private int archerHP;
+    // distance from each footman to its nearest archer as counted by the utility, 0 if dead
+    private final int[] nearestArcher;
+    private int distanceSum;
+    // whether an archer moved or died since nearestArcher and distanceSum were last looked up
+    private boolean distancesStale;
+    // nearestArcher, distanceSum and distancesStale before each move made, to take the move back
+    private int[] distanceStack;
+    private int distanceStackSize = 0;
+
+    // joint moves generated at each ply of the search, reused so searching allocates nothing
+    private long[][] moveStack = new long[16][];
+    private long[] current = new long[64];
+    private long[] next = new long[64];
+
+    /**
+     * constructor for SearchBoard
+     * @param state the state to copy, see fits
+     */
+    public SearchBoard(GameState state) {
+        this(state, false);
+    }
+
+    /**
+     * constructor for SearchBoard
+     * @param state the state to copy, see fits
+     * @param factored whether each unit acts on its own ply, starting with the first unit of the side to move
+     */
+    public SearchBoard(GameState state, boolean factored) {
+        this.factored = factored;
+        xExtent = state.getXExtent();
+        yExtent = state.getYExtent();
+        resource = new boolean[xExtent * yExtent];
+        occupant = new int[xExtent * yExtent];
+        Arrays.fill(occupant, -1);
+        for (int cell = 0; cell < resource.length; cell++) {
+            resource[cell] = state.isResourceAt(cell % xExtent, cell / xExtent);
+        }
+
+        List<GameState.MyUnitView> footmen = state.getFootmanUnitViews();
+        List<GameState.MyUnitView> archers = state.getArcherUnitViews();
+        footmanCount = footmen.size();
+        unitCount = footmen.size() + archers.size();
+        ids = new int[unitCount];
+        xs = new int[unitCount];
+        ys = new int[unitCount];
+        hps = new int[unitCount];
+        attacks = new int[unitCount];
+        for (int i = 0; i < unitCount; i++) {
+            GameState.MyUnitView unit = i < footmanCount ? footmen.get(i) : archers.get(i - footmanCount);
+            ids[i] = unit.getID();
+            xs[i] = unit.getXPosition();
+            ys[i] = unit.getYPosition();
+            hps[i] = unit.getHP();
+            attacks[i] = unit.getBasicAttack();
+            occupant[ys[i] * xExtent + xs[i]] = i;
+        }
+        archerRange = archers.isEmpty() ? 0 : state.getArcherRange();
+        footmanTurn = state.getIsFootmanTurn();
+        zobristHash = state.getZobristHash();
+        footmenAlive = footmen.size();
+        archersAlive = archers.size();
+        distanceField = state.getDistanceField();
+        nearestArcher = new int[footmanCount];
+        distanceStack = new int[16 * (footmanCount + 2)];
+        for (int i = 0; i < unitCount; i++) {
+            if (i < footmanCount) footmanHP += hps[i]; else archerHP += hps[i];
+        }
+        updateDistances();
+        if (factored) {
+            actingUnit = nextLivingUnit(footmanTurn ? -1 : footmanCount - 1, footmanTurn);
+            if (actingUnit >= 0) zobristHash ^= actingKey(actingUnit);
+        }
+    }
+
+    /**
+     * constructor for SearchBoard, copies another board so a second thread can search from the
+     * same position
+     * @param other
+     */
+    public SearchBoard(SearchBoard other) {
+        xExtent = other.xExtent;
+        yExtent = other.yExtent;
+        // never changes, so it can be shared
+        resource = other.resource;
+        occupant = other.occupant.clone();
+        footmanCount = other.footmanCount;
+        unitCount = other.unitCount;
+        ids = other.ids;
+        xs = other.xs.clone();
+        ys = other.ys.clone();
+        hps = other.hps.clone();
+        attacks = other.attacks;
+        archerRange = other.archerRange;
+        footmanTurn = other.footmanTurn;
+        zobristHash = other.zobristHash;
+        footmenAlive = other.footmenAlive;
+        archersAlive = other.archersAlive;
+        factored = other.factored;
+        actingUnit = other.actingUnit;
+        actingStack = other.actingStack.clone();
+        actingStackSize = other.actingStackSize;
+        distanceField = other.distanceField;
+        footmanHP = other.footmanHP;
+        archerHP = other.archerHP;
+        nearestArcher = other.nearestArcher.clone();
+        distanceSum = other.distanceSum;
+        distancesStale = other.distancesStale;
+        distanceStack = other.distanceStack.clone();
+        distanceStackSize = other.distanceStackSize;
+    }
+
+    /**
+     * @return whether a joint move of either side of the state fits in a long
+     */
+    public static boolean fits(GameState state) {
+        return state.getFootmanUnitViews().size() <= MAX_UNITS_PER_SIDE
+                && state.getArcherUnitViews().size() <= MAX_UNITS_PER_SIDE;
+    }
+
+    public boolean getIsFootmanTurn() {
+        return footmanTurn;
+    }
+
+    public boolean isFactored() {
+        return factored;
+    }
+
+    public long getZobristHash() {
+        return zobristHash;
+    }
+
+    /**
+     * @return whether one side has no units left
+     */
+    public boolean isGameOver() {
+        return footmenAlive == 0 || archersAlive == 0;
+    }
+
+    public int getFootmenAlive() {
+        return footmenAlive;
+    }
+
+    public int getArchersAlive() {
+        return archersAlive;
+    }
+
+    public int getFootmanHP() {
+        return footmanHP;
+    }
+
+    public int getArcherHP() {
+        return archerHP;
+    }
+
+    /**
+     * @return the footmen's walking distances to their nearest archers as getUtility counts them
+     */
+    public int getDistanceSum() {
+        if (distancesStale) updateDistances();
+        return distanceSum;
+    }
+
+    /**
+     * same value as GameState.getUtility for the current position
+     */
+    public double getUtility() {
+        if (distancesStale) updateDistances();
+        return footmanHP - archerHP - GameState.DISTANCE_WEIGHT * distanceSum;
+    }
+
+    /**
+     * How much closer a joint move of the side to move brings its units to their targets: the
+     * steps footmen take towards their nearest archer plus the steps archers take away from
+     * their nearest footman, by walking distance. Attacks count 0.
+     *
+     * @param move
+     * @return
+     */
+    public int distanceGain(long move) {
+        int first = footmanTurn ? 0 : footmanCount;
+        int end = footmanTurn ? footmanCount : unitCount;
+        int gain = 0;
+        for (int i = first; i < end && move != 0; i++) {
+            int code = (int) (move >>> (8 * (i - first))) & 0xFF;
+            if (code == 0 || code > DIRECTIONS.size()) continue;
+            Direction direction = DIRECTIONS.get(code - 1);
+            int before = nearestEnemyDistance(i, xs[i], ys[i]);
+            int after = nearestEnemyDistance(i, xs[i] + direction.xComponent(), ys[i] + direction.yComponent());
+            gain += footmanTurn ? before - after : after - before;
+        }
+        return gain;
+    }
+
+    private int nearestEnemyDistance(int unit, int x, int y) {
+        int first = unit < footmanCount ? footmanCount : 0;
+        int end = unit < footmanCount ? unitCount : footmanCount;
+        int nearest = Integer.MAX_VALUE;
+        for (int i = first; i < end; i++) {
+            if (hps[i] <= 0) continue;
+            nearest = Math.min(nearest, distanceField.distance(x, y, xs[i], ys[i]));
+        }
+        // no enemies left, any move is as good as another
+        return nearest == Integer.MAX_VALUE ? 0 : nearest;
+    }
+
+    /**
+     * @return the joint moves written by the last generateMoves call for the ply
+     */
+    public long[] getMoves(int ply) {
+        return moveStack[ply];
+    }
+
+    /**
+     * Writes every joint move of the side to move into getMoves(ply), in the order
+     * GameState.getChildren would list the children. On a factored board these are the moves
+     * and attacks of the acting unit only.
+     *
+     * @param ply depth below the root, each ply has its own buffer
+     * @return number of joint moves
+     */
+    public int generateMoves(int ply) {
+        int first = footmanTurn ? 0 : footmanCount;
+        int end = footmanTurn ? footmanCount : unitCount;
+        current[0] = 0;
+        int count = 1;
+        if (factored) {
+            if (actingUnit < 0) return 0;
+            first = actingUnit;
+            end = actingUnit + 1;
+        }
+        // like getChildren, add one unit at a time to every partial joint move found so far,
+        // first all of its moves and then all of its attacks
+        for (int i = first; i < end; i++) {
+            if (hps[i] <= 0) continue;
+            int shift = 8 * (i - (footmanTurn ? 0 : footmanCount));
+            int nextCount = 0;
+            for (int p = 0; p < count; p++) {
+                applyActions(current[p]);
+                for (int d = 0; d < DIRECTIONS.size(); d++) {
+                    int x = xs[i] + DIRECTIONS.get(d).xComponent();
+                    int y = ys[i] + DIRECTIONS.get(d).yComponent();
+                    if (!inBounds(x, y) || resource[y * xExtent + x] || occupant[y * xExtent + x] >= 0) continue;
+                    nextCount = append(nextCount, current[p] | (long) (d + 1) << shift);
+                }
+                revertActions(current[p]);
+            }
+            for (int p = 0; p < count; p++) {
+                applyActions(current[p]);
+                nextCount = appendAttacks(i, shift, current[p], nextCount);
+                revertActions(current[p]);
+            }
+            long[] swap = current;
+            current = next;
+            next = swap;
+            count = nextCount;
+        }
+        return saveMoves(ply, count);
+    }
+
+    /**
+     * Writes the joint moves of the side to move in which every unit that can attack does, and
+     * the others stay where they are, into getMoves(ply), for quiescence search. On a factored
+     * board these are the attacks of the acting unit, or staying where it is if it has none but
+     * a unit after it on its side has one.
+     *
+     * @param ply depth below the root, each ply has its own buffer
+     * @return number of joint moves, 0 if no unit of the side to move can attack
+     */
+    public int generateAttacks(int ply) {
+        int sideFirst = footmanTurn ? 0 : footmanCount;
+        int first = sideFirst;
+        int end = footmanTurn ? footmanCount : unitCount;
+        current[0] = 0;
+        int count = 1;
+        if (factored) {
+            if (actingUnit < 0) return 0;
+            first = actingUnit;
+            end = actingUnit + 1;
+        }
+        boolean anyAttack = false;
+        for (int i = first; i < end; i++) {
+            if (hps[i] <= 0) continue;
+            int shift = 8 * (i - sideFirst);
+            int nextCount = 0;
+            for (int p = 0; p < count; p++) {
+                applyActions(current[p]);
+                int before = nextCount;
+                nextCount = appendAttacks(i, shift, current[p], nextCount);
+                if (nextCount > before) {
+                    anyAttack = true;
+                } else {
+                    // nothing in range, the unit stays where it is
+                    nextCount = append(nextCount, current[p]);
+                }
+                revertActions(current[p]);
+            }
+            long[] swap = current;
+            current = next;
+            next = swap;
+            count = nextCount;
+        }
+        if (!anyAttack && (!factored || !laterUnitCanAttack())) return 0;
+        return saveMoves(ply, count);
+    }
+
+    /**
+     * adds the partial joint move with each attack the unit has to the next buffer
+     * @return the new number of moves in it
+     */
+    private int appendAttacks(int unit, int shift, long partial, int nextCount) {
+        if (footmanTurn) {
+            for (Direction direction : DIRECTIONS) {
+                int x = xs[unit] + direction.xComponent();
+                int y = ys[unit] + direction.yComponent();
+                if (!inBounds(x, y)) continue;
+                int target = occupant[y * xExtent + x];
+                if (target >= footmanCount) nextCount = append(nextCount, partial | (long) (5 + target) << shift);
+            }
+        } else {
+            for (int target = 0; target < footmanCount; target++) {
+                if (hps[target] <= 0) continue;
+                int dx = xs[target] - xs[unit];
+                int dy = ys[target] - ys[unit];
+                if (dx * dx + dy * dy > archerRange * archerRange) continue;
+                nextCount = append(nextCount, partial | (long) (5 + target) << shift);
+            }
+        }
+        return nextCount;
+    }
+
+    /**
+     * @return whether a living unit after the acting unit of a factored board, on its side, can
+     * attack. Uses the next buffer, which is free between generating moves.
+     */
+    private boolean laterUnitCanAttack() {
+        int sideFirst = footmanTurn ? 0 : footmanCount;
+        int end = footmanTurn ? footmanCount : unitCount;
+        for (int i = actingUnit + 1; i < end; i++) {
+            if (hps[i] > 0 && appendAttacks(i, 8 * (i - sideFirst), 0, 0) > 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * copies the count moves in the current buffer to the ply's buffer
+     * @return count
+     */
+    private int saveMoves(int ply, int count) {
+        if (ply >= moveStack.length) moveStack = Arrays.copyOf(moveStack, ply * 2);
+        if (moveStack[ply] == null || moveStack[ply].length < count) moveStack[ply] = new long[Math.max(count, 64)];
+        System.arraycopy(current, 0, moveStack[ply], 0, count);
+        return count;
+    }
+
+    /**
+     * adds a joint move to the next buffer, growing it if needed
+     * @return the new number of moves in it
+     */
+    private int append(int count, long move) {
+        if (count == next.length) next = Arrays.copyOf(next, count * 2);
+        next[count] = move;
+        // current is swapped with next, keep them the same size
+        if (current.length < next.length) current = Arrays.copyOf(current, next.length);
+        return count + 1;
+    }
+
+    /**
+     * plays a joint move of the side to move and passes the turn
+     * @param move
+     */
+    public void make(long move) {
+        saveDistances();
+        applyActions(move);
+        updateDistances(move);
+        if (!factored) {
+            passTurn();
+            return;
+        }
+        if (actingStackSize == actingStack.length) actingStack = Arrays.copyOf(actingStack, actingStackSize * 2);
+        actingStack[actingStackSize++] = actingUnit;
+        zobristHash ^= actingKey(actingUnit);
+        int next = nextLivingUnit(actingUnit, footmanTurn);
+        if (next < 0) {
+            passTurn();
+            next = nextLivingUnit(footmanTurn ? -1 : footmanCount - 1, footmanTurn);
+        }
+        actingUnit = next;
+        if (actingUnit >= 0) zobristHash ^= actingKey(actingUnit);
+    }
+
+    /**
+     * takes back the joint move most recently made
+     * @param move
+     */
+    public void unmake(long move) {
+        if (!factored) {
+            passTurn();
+        } else {
+            if (actingUnit >= 0) zobristHash ^= actingKey(actingUnit);
+            actingUnit = actingStack[--actingStackSize];
+            zobristHash ^= actingKey(actingUnit);
+            if (actingUnit < footmanCount != footmanTurn) passTurn();
+        }
+        revertActions(move);
+        restoreDistances();
+    }
+
+    private void saveDistances() {
+        int size = footmanCount + 2;
+        if (distanceStackSize + size > distanceStack.length) {
+            distanceStack = Arrays.copyOf(distanceStack, distanceStack.length * 2);
+        }
+        System.arraycopy(nearestArcher, 0, distanceStack, distanceStackSize, footmanCount);
+        distanceStack[distanceStackSize + footmanCount] = distanceSum;
+        distanceStack[distanceStackSize + footmanCount + 1] = distancesStale ? 1 : 0;
+        distanceStackSize += size;
+    }
+
+    private void restoreDistances() {
+        distanceStackSize -= footmanCount + 2;
+        System.arraycopy(distanceStack, distanceStackSize, nearestArcher, 0, footmanCount);
+        distanceSum = distanceStack[distanceStackSize + footmanCount];
+        distancesStale = distanceStack[distanceStackSize + footmanCount + 1] != 0;
+    }
+
+    private void passTurn() {
+        footmanTurn = !footmanTurn;
+        zobristHash ^= GameState.SIDE_TO_MOVE_KEY;
+    }
+
+    /**
+     * @return the first living unit of the side after the given unit index, -1 if there is none
+     */
+    private int nextLivingUnit(int after, boolean footmen) {
+        int end = footmen ? footmanCount : unitCount;
+        for (int i = after + 1; i < end; i++) {
+            if (hps[i] > 0) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * hashed in for the acting unit of a factored board, an impossible position of the unit
+     */
+    private long actingKey(int unit) {
+        return GameState.zobristKey(ids[unit], -1, -1, 0);
+    }
+
+    /**
+     * the SEPIA actions of a joint move of the side to move
+     * @param move
+     * @return
+     */
+    public Map<Integer, Action> toActions(long move) {
+        Map<Integer, Action> actions = new HashMap<>();
+        int first = footmanTurn ? 0 : footmanCount;
+        int end = footmanTurn ? footmanCount : unitCount;
+        for (int i = first; i < end; i++) {
+            int code = (int) (move >>> (8 * (i - first))) & 0xFF;
+            if (code == 0) continue;
+            if (code <= DIRECTIONS.size()) {
+                actions.put(ids[i], Action.createPrimitiveMove(ids[i], DIRECTIONS.get(code - 1)));
+            } else {
+                actions.put(ids[i], Action.createPrimitiveAttack(ids[i], ids[code - 5]));
+            }
+        }
+        return actions;
+    }
+
+    private boolean inBounds(int x, int y) {
+        return x >= 0 && x < xExtent && y >= 0 && y < yExtent;
+    }
+
+    private void applyActions(long move) {
+        int first = footmanTurn ? 0 : footmanCount;
+        int end = footmanTurn ? footmanCount : unitCount;
+        for (int i = first; i < end && move != 0; i++) {
+            int code = (int) (move >>> (8 * (i - first))) & 0xFF;
+            if (code == 0) continue;
+            if (code <= DIRECTIONS.size()) {
+                Direction direction = DIRECTIONS.get(code - 1);
+                moveUnit(i, direction.xComponent(), direction.yComponent());
+            } else {
+                changeHP(code - 5, -attacks[i]);
+            }
+        }
+    }
+
+    private void revertActions(long move) {
+        int first = footmanTurn ? 0 : footmanCount;
+        int end = footmanTurn ? footmanCount : unitCount;
+        // undo in reverse so units hit twice come back through the same HP values
+        for (int i = end - 1; i >= first; i--) {
+            int code = (int) (move >>> (8 * (i - first))) & 0xFF;
+            if (code == 0) continue;
+            if (code <= DIRECTIONS.size()) {
+                Direction direction = DIRECTIONS.get(code - 1);
+                moveUnit(i, -direction.xComponent(), -direction.yComponent());
+            } else {
+                changeHP(code - 5, attacks[i]);
+            }
+        }
+    }
+
+    private void moveUnit(int unit, int dx, int dy) {
+        occupant[ys[unit] * xExtent + xs[unit]] = -1;
+        zobristHash ^= GameState.zobristKey(ids[unit], xs[unit], ys[unit], hps[unit]);
+        xs[unit] += dx;
+        ys[unit] += dy;
+        zobristHash ^= GameState.zobristKey(ids[unit], xs[unit], ys[unit], hps[unit]);
+        occupant[ys[unit] * xExtent + xs[unit]] = unit;
+    }
+
+    /**
+     * Changes a unit's HP, removing it from the board when it drops to 0 or below and putting it
+     * back when an undo lifts it above 0 again. Like GameState.removeUnit, a dead unit leaves
+     * the hash with the HP it had before the killing blow.
+     */
+    private void changeHP(int unit, int change) {
+        int before = hps[unit];
+        int after = before + change;
+        hps[unit] = after;
+        int cell = ys[unit] * xExtent + xs[unit];
+        int alive = (before > 0 ? -before : 0) + (after > 0 ? after : 0);
+        if (unit < footmanCount) footmanHP += alive; else archerHP += alive;
+        if (before > 0 && after > 0) {
+            zobristHash ^= GameState.zobristKey(ids[unit], xs[unit], ys[unit], before)
+                    ^ GameState.zobristKey(ids[unit], xs[unit], ys[unit], after);
+        } else if (before > 0) {
+            zobristHash ^= GameState.zobristKey(ids[unit], xs[unit], ys[unit], before);
+            occupant[cell] = -1;
+            if (unit < footmanCount) footmenAlive--; else archersAlive--;
+        } else if (after > 0) {
+            zobristHash ^= GameState.zobristKey(ids[unit], xs[unit], ys[unit], after);
+            occupant[cell] = unit;
+            if (unit < footmanCount) footmenAlive++; else archersAlive++;
+        }
+    }
+
+    /**
+     * keeps the distances up to date after a joint move of the side to move was applied,
+     * looking up those of the footmen that moved or died and marking all stale if an archer did
+     */
+    private void updateDistances(long move) {
+        int first = footmanTurn ? 0 : footmanCount;
+        int end = footmanTurn ? footmanCount : unitCount;
+        for (int i = first; i < end && move != 0; i++) {
+            int code = (int) (move >>> (8 * (i - first))) & 0xFF;
+            if (code == 0) continue;
+            int unit = code <= DIRECTIONS.size() ? i : code - 5;
+            // an attack only changes the distances if it killed its target
+            if (code > DIRECTIONS.size() && hps[unit] > 0) continue;
+            if (unit >= footmanCount) {
+                distancesStale = true;
+            } else if (!distancesStale) {
+                updateDistance(unit);
+            }
+        }
+    }
+
+    private void updateDistances() {
+        for (int footman = 0; footman < footmanCount; footman++) {
+            updateDistance(footman);
+        }
+        distancesStale = false;
+    }
+
+    /**
+     * looks up the footman's distance to its nearest archer again, the way GameState.getUtility counts it
+     */
+    private void updateDistance(int footman) {
+        int distance = 0;
+        if (hps[footman] > 0 && archersAlive > 0) {
+            distance = GameState.MAX_COUNTED_DISTANCE;
+            for (int archer = footmanCount; archer < unitCount; archer++) {
+                if (hps[archer] <= 0) continue;
+                distance = Math.min(distance, distanceField.distance(xs[footman], ys[footman], xs[archer], ys[archer]));
+            }
+        }
+        distanceSum += distance - nearestArcher[footman];
+        nearestArcher[footman] = distance;
+    }
+}
@@ -0,0 +1,176 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Counts what the search does in a turn, to tune depth and move ordering against real games:
+ * nodes, evaluations, transposition table probes and hits, which child cut each node off, the
+ * branching factor at each depth, and the time spent generating, ordering and evaluating.
+ *
+ * Each thread counts into its own Counters, so counting needs no locking, and the counters of
+ * every thread are summed when the turn's row is written. A search without a SearchStatistics
+ * counts nothing and pays only a null check per node.
+ */
+public class SearchStatistics {
+    // cutoffs are counted by the index of the child that caused them, the last one counts every
+    // later child as well
+    public static final int CUTOFF_INDEXES = 4;
+
+    private static final String CSV_HEADER = "turn,depth,millis,nodes,evaluations,tableProbes,tableHits,"
+            + "moveGenerationMillis,orderingMillis,evaluationMillis,cutoffs1,cutoffs2,cutoffs3,cutoffs4+,"
+            + "branchingByDepth";
+
+    /**
+     * the counts of one thread
+     */
+    public static class Counters {
+        private long nodes;
+        private long evaluations;
+        private long tableProbes;
+        private long tableHits;
+        private long moveGenerationNanos;
+        private long orderingNanos;
+        private long evaluationNanos;
+        private final long[] cutoffs = new long[CUTOFF_INDEXES];
+        // nodes whose children were generated at each remaining depth, and the children they had
+        private long[] expanded = new long[16];
+        private long[] children = new long[16];
+
+        public void node() {
+            nodes++;
+        }
+
+        public void evaluation(long nanos) {
+            evaluations++;
+            evaluationNanos += nanos;
+        }
+
+        public void probe(boolean hit) {
+            tableProbes++;
+            if (hit) tableHits++;
+        }
+
+        public void expansion(int depth, int count, long nanos) {
+            if (depth >= expanded.length) {
+                expanded = Arrays.copyOf(expanded, depth * 2);
+                children = Arrays.copyOf(children, depth * 2);
+            }
+            expanded[depth]++;
+            children[depth] += count;
+            moveGenerationNanos += nanos;
+        }
+
+        public void ordering(long nanos) {
+            orderingNanos += nanos;
+        }
+
+        /**
+         * @param index index of the child that cut the node off
+         */
+        public void cutoff(int index) {
+            cutoffs[Math.min(index, CUTOFF_INDEXES - 1)]++;
+        }
+
+        private void add(Counters other) {
+            nodes += other.nodes;
+            evaluations += other.evaluations;
+            tableProbes += other.tableProbes;
+            tableHits += other.tableHits;
+            moveGenerationNanos += other.moveGenerationNanos;
+            orderingNanos += other.orderingNanos;
+            evaluationNanos += other.evaluationNanos;
+            for (int i = 0; i < CUTOFF_INDEXES; i++) {
+                cutoffs[i] += other.cutoffs[i];
+            }
+            if (other.expanded.length > expanded.length) {
+                expanded = Arrays.copyOf(expanded, other.expanded.length);
+                children = Arrays.copyOf(children, other.expanded.length);
+            }
+            for (int d = 0; d < other.expanded.length; d++) {
+                expanded[d] += other.expanded[d];
+                children[d] += other.children[d];
+            }
+        }
+
+        private void clear() {
+            nodes = evaluations = tableProbes = tableHits = 0;
+            moveGenerationNanos = orderingNanos = evaluationNanos = 0;
+            Arrays.fill(cutoffs, 0);
+            Arrays.fill(expanded, 0);
+            Arrays.fill(children, 0);
+        }
+    }
+
+    private final String csvPath;
+    private final List<Counters> allCounters = new ArrayList<>();
+    private final ThreadLocal<Counters> threadCounters = ThreadLocal.withInitial(this::newCounters);
+
+    /**
+     * constructor for SearchStatistics
+     * @param csvPath file each turn's row is appended to, with a header first if it is new
+     */
+    public SearchStatistics(String csvPath) {
+        this.csvPath = csvPath;
+    }
+
+    private synchronized Counters newCounters() {
+        Counters counters = new Counters();
+        allCounters.add(counters);
+        return counters;
+    }
+
+    /**
+     * @return the counters of the calling thread
+     */
+    public Counters forThread() {
+        return threadCounters.get();
+    }
+
+    /**
+     * zeroes every thread's counters, called before a turn's search while no thread is counting
+     */
+    public synchronized void startTurn() {
+        for (Counters counters : allCounters) {
+            counters.clear();
+        }
+    }
+
+    /**
+     * Appends the turn's row, the sum of every thread's counters, once the search is over.
+     *
+     * @param turn turn number
+     * @param depth plys searched
+     * @param millis time the turn took
+     * @throws IOException
+     */
+    public synchronized void writeTurn(int turn, int depth, long millis) throws IOException {
+        Counters total = new Counters();
+        for (Counters counters : allCounters) {
+            total.add(counters);
+        }
+
+        // average children of the nodes expanded at depths 1, 2, ..., up to the deepest one
+        StringBuilder branching = new StringBuilder();
+        for (int d = 1; d < total.expanded.length; d++) {
+            if (total.expanded[d] == 0) continue;
+            if (branching.length() > 0) branching.append(' ');
+            branching.append(d).append(':').append(String.format("%.2f", (double) total.children[d] / total.expanded[d]));
+        }
+
+        boolean newFile = !new File(csvPath).exists();
+        try (PrintWriter out = new PrintWriter(new FileWriter(csvPath, true))) {
+            if (newFile) out.println(CSV_HEADER);
+            out.println(turn + "," + depth + "," + millis + "," + total.nodes + "," + total.evaluations + ","
+                    + total.tableProbes + "," + total.tableHits + "," + total.moveGenerationNanos / 1000000 + ","
+                    + total.orderingNanos / 1000000 + "," + total.evaluationNanos / 1000000 + ","
+                    + total.cutoffs[0] + "," + total.cutoffs[1] + "," + total.cutoffs[2] + "," + total.cutoffs[3] + ","
+                    + branching);
+        }
+    }
+}
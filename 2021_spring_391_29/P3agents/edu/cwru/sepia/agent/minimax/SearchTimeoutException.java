@@ -0,0 +1,11 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * Thrown from deep inside the search once the deadline passed, caught by the iterative
+ * deepening loop. It carries no stack trace, so throwing it is cheap.
+ */
+class SearchTimeoutException extends RuntimeException {
+    SearchTimeoutException() {
+        super(null, null, false, false);
+    }
+}
@@ -0,0 +1,105 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * Fixed size table of search results keyed by GameState.getZobristHash.
+ *
+ * Each slot remembers the depth a state was searched to, the value found, whether that value
+ * is exact or only a bound (the search was cut off), and the best child, identified by its
+ * own hash. Entries are kept in parallel arrays so the table allocates nothing while
+ * searching. A slot is overwritten by a different state, or by the same state searched at
+ * least as deep.
+ *
+ * Several search threads may share a table without locking: the key array holds the hash
+ * xor'ed with the rest of the entry, so an entry torn by two threads writing at once no longer
+ * matches its hash and is simply not found.
+ */
+public class TranspositionTable {
+    // the value is the true minimax value
+    public static final byte EXACT = 0;
+    // the search failed high, the true value is at least the stored one
+    public static final byte LOWER_BOUND = 1;
+    // the search failed low, the true value is at most the stored one
+    public static final byte UPPER_BOUND = 2;
+
+    /**
+     * a copy of one entry, filled in by probe
+     */
+    public static class Entry {
+        public int depth;
+        public double value;
+        public byte bound;
+        public long bestChild;
+    }
+
+    private final long[] keys;
+    private final long[] values;
+    // depth << 8 | bound, 0 for an empty slot since only depths of at least 1 are stored
+    private final long[] metas;
+    private final long[] bestChildren;
+    private final int mask;
+    // not synchronized, with several threads it is only a rough count
+    private int hits = 0;
+
+    /**
+     * constructor for TranspositionTable
+     * @param size number of entries, rounded up to a power of two
+     */
+    public TranspositionTable(int size) {
+        int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        keys = new long[capacity];
+        values = new long[capacity];
+        metas = new long[capacity];
+        bestChildren = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    private int slot(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * @param hash Zobrist hash of the state
+     * @param entry filled in with the stored result if there is one
+     * @return whether the state is in the table
+     */
+    public boolean probe(long hash, Entry entry) {
+        int slot = slot(hash);
+        long value = values[slot];
+        long meta = metas[slot];
+        long bestChild = bestChildren[slot];
+        if (meta == 0 || (keys[slot] ^ value ^ meta ^ bestChild) != hash) return false;
+        entry.depth = (int) (meta >>> 8);
+        entry.bound = (byte) meta;
+        entry.value = Double.longBitsToDouble(value);
+        entry.bestChild = bestChild;
+        hits++;
+        return true;
+    }
+
+    /**
+     * @return how many probes found their state since the table was made
+     */
+    public int getHits() {
+        return hits;
+    }
+
+    /**
+     * @param hash Zobrist hash of the state
+     * @param depth plys searched below the state, at least 1
+     * @param value
+     * @param bound EXACT, LOWER_BOUND or UPPER_BOUND
+     * @param bestChild hash of the best child found
+     */
+    public void store(long hash, int depth, double value, byte bound, long bestChild) {
+        int slot = slot(hash);
+        long oldMeta = metas[slot];
+        if (oldMeta != 0 && (keys[slot] ^ values[slot] ^ oldMeta ^ bestChildren[slot]) == hash
+                && (int) (oldMeta >>> 8) > depth) return;
+        long valueBits = Double.doubleToLongBits(value);
+        long meta = ((long) depth << 8) | bound;
+        values[slot] = valueBits;
+        metas[slot] = meta;
+        bestChildren[slot] = bestChild;
+        keys[slot] = hash ^ valueBits ^ meta ^ bestChild;
+    }
+}
@@ -0,0 +1,161 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.environment.model.state.PlayerState;
+import edu.cwru.sepia.environment.model.state.ResourceNode;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.Unit;
+import edu.cwru.sepia.environment.model.state.UnitTemplate;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One starting position for the minimax benchmark, footmen against archers with the footmen to
+ * move, either read from a SEPIA map file or laid out on one.
+ *
+ * Maps are read with DOM and built with State.StateBuilder rather than through SEPIA's JAXB
+ * classes, so the benchmark also builds on JDKs without javax.xml.bind. Only what the search
+ * looks at is read: the unit templates' health, attack and range, the units, and the resources.
+ */
+public class BenchmarkPosition {
+    public final String name;
+    public final State.StateView state;
+
+    /**
+     * constructor for BenchmarkPosition
+     * @param name
+     * @param state
+     */
+    public BenchmarkPosition(String name, State.StateView state) {
+        this.name = name;
+        this.state = state;
+    }
+
+    /**
+     * Reads a map saved by SEPIA, such as data/Game2fv2a.xml.
+     *
+     * @param file
+     * @return
+     * @throws Exception if the file can't be parsed
+     */
+    public static BenchmarkPosition load(File file) throws Exception {
+        return new BenchmarkPosition(file.getName().replace(".xml", ""), build(parse(file)));
+    }
+
+    /**
+     * Lays out footmen against archers on a map with one of each, such as data/Game2fv2a.xml.
+     * The footmen are spread evenly along the row of the map's first footman and the archers
+     * along the row of its first archer, copies of those units with new IDs.
+     *
+     * @param file map to take the terrain, unit templates and rows from
+     * @param footmen number of footmen, at most SearchBoard.MAX_UNITS_PER_SIDE to search on a SearchBoard
+     * @param archers number of archers
+     * @return
+     * @throws Exception if the file can't be parsed or lacks a footman or an archer
+     */
+    public static BenchmarkPosition synthetic(File file, int footmen, int archers) throws Exception {
+        Element root = parse(file);
+        int xExtent = Integer.parseInt(root.getAttribute("xExtent"));
+        int id = 0;
+        for (Element player : children(root, "player")) {
+            List<Element> units = children(player, "unit");
+            if (units.isEmpty()) throw new IllegalArgumentException(file + " needs a unit for player " + text(player, "ID"));
+            Element prototype = units.get(0);
+            int count = text(player, "ID").equals("0") ? footmen : archers;
+            for (Element unit : units) {
+                player.removeChild(unit);
+            }
+            for (int i = 0; i < count; i++) {
+                Element unit = (Element) prototype.cloneNode(true);
+                setText(unit, "ID", id++);
+                setText(unit, "xPosition", (i + 1) * xExtent / (count + 1));
+                player.appendChild(unit);
+            }
+        }
+        root.setAttribute("nextTargetID", Integer.toString(Math.max(Integer.parseInt(root.getAttribute("nextTargetID")), id)));
+        return new BenchmarkPosition(footmen + "fv" + archers + "a", build(root));
+    }
+
+    private static Element parse(File file) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file).getDocumentElement();
+    }
+
+    /**
+     * @return player 0's view of the state the map element describes
+     */
+    private static State.StateView build(Element root) {
+        int xExtent = Integer.parseInt(root.getAttribute("xExtent"));
+        int yExtent = Integer.parseInt(root.getAttribute("yExtent"));
+        State.StateBuilder builder = new State.StateBuilder();
+        builder.setSize(xExtent, yExtent);
+        builder.setIDDistributerTargetMax(Integer.parseInt(root.getAttribute("nextTargetID")));
+        builder.setIDDistributerTemplateMax(Integer.parseInt(root.getAttribute("nextTemplateID")));
+        for (Element player : children(root, "player")) {
+            int playerID = Integer.parseInt(text(player, "ID"));
+            PlayerState playerState = new PlayerState(playerID);
+            // adding a unit marks what it sees on the player's matrix
+            playerState.setVisibilityMatrix(new int[xExtent][yExtent]);
+            builder.addPlayer(playerState);
+            Map<Integer, UnitTemplate> templates = new HashMap<>();
+            for (Element element : children(player, "template")) {
+                // upgrades are templates too, only units are needed
+                if (!element.getAttribute("xsi:type").equals("UnitTemplate")) continue;
+                UnitTemplate template = new UnitTemplate(number(element, "ID"));
+                template.setName(text(element, "name"));
+                template.setPlayer(playerID);
+                template.setBaseHealth(number(element, "baseHealth"));
+                template.setBasicAttack(number(element, "baseAttack"));
+                template.setPiercingAttack(number(element, "piercingAttack"));
+                template.setRange(number(element, "range"));
+                template.setArmor(number(element, "armor"));
+                template.setSightRange(number(element, "sightRange"));
+                template.setCanMove(Boolean.parseBoolean(text(element, "canMove")));
+                templates.put(number(element, "ID"), template);
+                builder.addTemplate(template);
+            }
+            for (Element element : children(player, "unit")) {
+                Unit unit = new Unit(templates.get(number(element, "templateID")), number(element, "ID"));
+                unit.setHP(number(element, "currentHealth"));
+                builder.addUnit(unit, number(element, "xPosition"), number(element, "yPosition"));
+            }
+        }
+        for (Element element : children(root, "resourceNode")) {
+            builder.addResource(new ResourceNode(ResourceNode.Type.valueOf(text(element, "type")),
+                    number(element, "xPosition"), number(element, "yPosition"),
+                    number(element, "amountRemaining"), number(element, "ID")));
+        }
+        return builder.build().getView(0);
+    }
+
+    private static int number(Element parent, String tag) {
+        return Integer.parseInt(text(parent, tag));
+    }
+
+    private static String text(Element parent, String tag) {
+        List<Element> matches = children(parent, tag);
+        if (matches.isEmpty()) throw new IllegalArgumentException("Missing <" + tag + "> in <" + parent.getTagName() + ">");
+        return matches.get(0).getTextContent().trim();
+    }
+
+    private static void setText(Element parent, String tag, int value) {
+        children(parent, tag).get(0).setTextContent(Integer.toString(value));
+    }
+
+    /**
+     * @return the direct children of parent with the given tag, getElementsByTagName would
+     * also return nested ones
+     */
+    private static List<Element> children(Element parent, String tag) {
+        List<Element> matches = new ArrayList<>();
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element && ((Element) node).getTagName().equals(tag)) matches.add((Element) node);
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,255 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Times the move generation and search of MinimaxAlphaBeta, outside of the SEPIA runner.
+ *
+ * The bundled P3 maps and footmen against archers layouts of several sizes are the starting
+ * positions. For each one the children of the root are generated the three ways the search can:
+ * GameState.getChildren, CompactGameState.getChildren, and SearchBoard.generateMoves with a make
+ * and unmake of every move, on a board made once. It prints the children per call, children per second, bytes
+ * allocated per child and latency percentiles. Then alphaBetaSearch is run from the root to
+ * each depth with a new agent every time, so the transposition table and move ordering start
+ * empty as on the first turn of a game, and it prints bytes allocated per search and latency
+ * percentiles. Once a depth takes longer than maxMillis the deeper searches of that position are
+ * skipped.
+ *
+ * Arguments are optional name=value pairs:
+ * data: directory holding the maps, data by default
+ * layouts: comma separated footmen x archers layouts laid out on Game2fv2a.xml, 3x3,4x4,5x5 by
+ * default, none for no layouts
+ * agent: comma separated MinimaxAlphaBeta arguments for the searches, such as
+ * tableSize=0,moveOrdering=false. Arguments used only by middleStep, such as factored or
+ * ponder, have no effect.
+ * minDepth: shallowest search, 2 by default
+ * maxDepth: deepest search, 8 by default
+ * maxMillis: median search time after which a position isn't searched deeper, 2000 by default.
+ * A search that takes longer than this while warming up is timed only once.
+ * generations: timed calls of each move generator, after a tenth as many untimed ones, 2000 by default
+ * warmup: untimed searches before measuring, 2 by default
+ * iterations: timed searches, 10 by default
+ */
+public class MinimaxBenchmark {
+    private static final String[] MAPS = {"Game2fv1a_Obstacles.xml", "Game2fv2a.xml", "Game2fv2a_Obstacles.xml"};
+    // map the layouts are laid out on
+    private static final String LAYOUT_MAP = "Game2fv2a.xml";
+    private static final String[] GENERATORS = {"gamestate", "compact", "board"};
+
+    private File dataDirectory = new File("data");
+    private String[] layouts = {"3x3", "4x4", "5x5"};
+    private String[] agentArgs = {};
+    private int minDepth = 2;
+    private int maxDepth = 8;
+    private long maxMillis = 2000;
+    private int generations = 2000;
+    private int warmup = 2;
+    private int iterations = 10;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        MinimaxBenchmark benchmark = new MinimaxBenchmark();
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            if (option.length != 2) {
+                System.err.println("Ignoring argument " + arg + ", expected name=value");
+                continue;
+            }
+            switch (option[0]) {
+                case "data":
+                    benchmark.dataDirectory = new File(option[1]);
+                    break;
+                case "layouts":
+                    benchmark.layouts = option[1].equals("none") ? new String[0] : option[1].split(",");
+                    break;
+                case "agent":
+                    benchmark.agentArgs = option[1].split(",");
+                    break;
+                case "minDepth":
+                    benchmark.minDepth = Integer.parseInt(option[1]);
+                    break;
+                case "maxDepth":
+                    benchmark.maxDepth = Integer.parseInt(option[1]);
+                    break;
+                case "maxMillis":
+                    benchmark.maxMillis = Long.parseLong(option[1]);
+                    break;
+                case "generations":
+                    benchmark.generations = Integer.parseInt(option[1]);
+                    break;
+                case "warmup":
+                    benchmark.warmup = Integer.parseInt(option[1]);
+                    break;
+                case "iterations":
+                    benchmark.iterations = Integer.parseInt(option[1]);
+                    break;
+                default:
+                    System.err.println("Ignoring unknown argument " + arg);
+            }
+        }
+        benchmark.run();
+    }
+
+    private void run() throws Exception {
+        List<BenchmarkPosition> positions = new ArrayList<>();
+        for (String map : MAPS) {
+            positions.add(BenchmarkPosition.load(new File(dataDirectory, map)));
+        }
+        for (String layout : layouts) {
+            String[] counts = layout.split("x");
+            positions.add(BenchmarkPosition.synthetic(new File(dataDirectory, LAYOUT_MAP),
+                    Integer.parseInt(counts[0]), Integer.parseInt(counts[1])));
+        }
+
+        System.out.println(String.format("%-24s %-10s %8s %14s %12s %10s %10s %10s",
+                "position", "generator", "children", "children/s", "bytes/child", "p50 us", "p90 us", "p99 us"));
+        for (BenchmarkPosition position : positions) {
+            GameState state = rootState(position);
+            for (String generator : GENERATORS) {
+                measureGenerator(position.name, state, generator);
+            }
+        }
+
+        System.out.println();
+        System.out.println(String.format("%-24s %5s %14s %10s %10s %10s",
+                "position", "depth", "bytes", "p50 ms", "p90 ms", "max ms"));
+        for (BenchmarkPosition position : positions) {
+            GameState state = rootState(position);
+            for (int depth = minDepth; depth <= maxDepth; depth++) {
+                if (measureSearch(position.name, state, depth) > maxMillis) break;
+            }
+        }
+    }
+
+    /**
+     * The state at the start of the position, with the walking distances worked out the way
+     * MinimaxAlphaBeta.initialStep does before its first search.
+     */
+    private static GameState rootState(BenchmarkPosition position) {
+        DistanceField.forState(position.state).precompute();
+        return new GameState(position.state);
+    }
+
+    /**
+     * The generator as a call that generates the children of the state and returns how many
+     * there are. The CompactGameState and SearchBoard are made before the call, as the search
+     * makes them once for the root.
+     *
+     * @return the call, null if the generator can't take the state
+     */
+    private static Callable<Integer> generator(GameState state, String generator) {
+        switch (generator) {
+            case "gamestate":
+                return () -> state.getChildren().size();
+            case "compact":
+                CompactGameState compact = new CompactGameState(state);
+                return () -> compact.getChildren().size();
+            case "board":
+                if (!SearchBoard.fits(state)) return null;
+                SearchBoard board = new SearchBoard(state);
+                return () -> {
+                    int count = board.generateMoves(0);
+                    long[] moves = board.getMoves(0);
+                    for (int i = 0; i < count; i++) {
+                        board.make(moves[i]);
+                        board.unmake(moves[i]);
+                    }
+                    return count;
+                };
+            default:
+                throw new IllegalArgumentException("Unknown generator " + generator);
+        }
+    }
+
+    private void measureGenerator(String name, GameState state, String generator) throws Exception {
+        Callable<Integer> generate = generator(state, generator);
+        if (generate == null) return;
+        long[] latencies = new long[generations];
+        long bytes = 0;
+        long totalNanos = 0;
+        int children = 0;
+        for (int i = -generations / 10; i < generations; i++) {
+            long threadID = Thread.currentThread().getId();
+            long allocatedBefore = allocatedBytes(threadID);
+            long startTime = System.nanoTime();
+            children = generate.call();
+            long elapsed = System.nanoTime() - startTime;
+            long allocatedAfter = allocatedBytes(threadID);
+            if (i < 0) continue;
+            latencies[i] = elapsed;
+            totalNanos += elapsed;
+            bytes = allocatedBefore < 0 || bytes < 0 ? -1 : bytes + allocatedAfter - allocatedBefore;
+        }
+
+        Arrays.sort(latencies);
+        long generated = (long) children * generations;
+        System.out.println(String.format("%-24s %-10s %8d %14.0f %12s %10.1f %10.1f %10.1f",
+                name, generator, children, generated / (totalNanos / 1e9),
+                bytes < 0 || generated == 0 ? "n/a" : Long.toString(bytes / generated),
+                percentile(latencies, 0.5) / 1e3, percentile(latencies, 0.9) / 1e3, percentile(latencies, 0.99) / 1e3));
+    }
+
+    /**
+     * @return the median search time in milliseconds
+     */
+    private double measureSearch(String name, GameState state, int depth) throws Exception {
+        String[] args = new String[agentArgs.length + 1];
+        args[0] = Integer.toString(depth);
+        System.arraycopy(agentArgs, 0, args, 1, agentArgs.length);
+        long[] latencies = new long[iterations];
+        long bytes = 0;
+        int timed = iterations;
+        for (int i = -warmup; i < iterations; i++) {
+            MinimaxAlphaBeta agent = new MinimaxAlphaBeta(0, args);
+            long threadID = Thread.currentThread().getId();
+            long allocatedBefore = allocatedBytes(threadID);
+            long startTime = System.nanoTime();
+            agent.alphaBetaSearch(new GameStateChild(new HashMap<>(), state), depth,
+                    Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+            long elapsed = System.nanoTime() - startTime;
+            long allocatedAfter = allocatedBytes(threadID);
+            if (i < 0 && elapsed / 1e6 > maxMillis) {
+                // too slow to search again, this search is the only one timed
+                latencies[0] = elapsed;
+                bytes = allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore;
+                timed = 1;
+                break;
+            }
+            if (i < 0) continue;
+            latencies[i] = elapsed;
+            bytes = allocatedBefore < 0 || bytes < 0 ? -1 : bytes + allocatedAfter - allocatedBefore;
+        }
+
+        latencies = Arrays.copyOf(latencies, timed);
+        Arrays.sort(latencies);
+        System.out.println(String.format("%-24s %5d %14s %10.1f %10.1f %10.1f",
+                name, depth, bytes < 0 ? "n/a" : Long.toString(bytes / timed),
+                percentile(latencies, 0.5) / 1e6, percentile(latencies, 0.9) / 1e6, latencies[timed - 1] / 1e6));
+        return percentile(latencies, 0.5) / 1e6;
+    }
+
+    /**
+     * @return bytes the thread has allocated so far, or -1 on JVMs that don't count them
+     */
+    private long allocatedBytes(long threadID) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threadID);
+        }
+        return -1;
+    }
+
+    /**
+     * nearest rank percentile of sorted latencies, in nanoseconds
+     */
+    private static long percentile(long[] sorted, double fraction) {
+        int rank = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, rank)];
+    }
+}